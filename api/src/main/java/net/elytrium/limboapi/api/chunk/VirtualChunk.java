@@ -18,6 +18,17 @@ public interface VirtualChunk {
   @NonNull
   VirtualBlock getBlock(int x, int y, int z);
 
+  /**
+   * Sets the block by its modern state id, without creating a {@link VirtualBlock}.
+   * The air states are air, every other state is solid and blocks motions.
+   */
+  void setBlockState(int x, int y, int z, short modernId);
+
+  /**
+   * @return The modern state id of the block.
+   */
+  short getBlockState(int x, int y, int z);
+
   void setBiome2d(int x, int z, @NonNull VirtualBiome biome);
 
   void setBiome3d(int x, int y, int z, @NonNull VirtualBiome biome);
@@ -8,6 +8,7 @@
 package net.elytrium.limboapi.api.chunk;
 
 import java.util.List;
+import java.util.function.Consumer;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -16,6 +17,37 @@ public interface VirtualWorld {
   @NonNull
   VirtualBlock getBlock(int x, int y, int z);
 
+  /**
+   * Sets the block by its modern state id, without creating a {@link VirtualBlock}.
+   * The air states are air, every other state is solid and blocks motions.
+   */
+  void setBlockState(int x, int y, int z, short modernId);
+
+  /**
+   * @return The modern state id of the block.
+   */
+  short getBlockState(int x, int y, int z);
+
+  /**
+   * Sets every block between the two corners (inclusive). Sections covered entirely are replaced at once.
+   */
+  void fill(int x1, int y1, int z1, int x2, int y2, int z2, @Nullable VirtualBlock block);
+
+  /**
+   * Sets many blocks at once, blocks of the same chunk should be kept next to each other.
+   *
+   * @param positions Coordinates of the blocks as x, y, z triples, {@code blocks[i]} is set at {@code positions[i * 3]}.
+   */
+  void setBlocks(int[] positions, VirtualBlock[] blocks);
+
+  /**
+   * Reads the modern ids of the blocks between the two corners (inclusive), ordered by y, then z, then x.
+   *
+   * @param modernIds Buffer to fill, a new one is created if null.
+   * @return The filled buffer.
+   */
+  short[] getBlocks(int x1, int y1, int z1, int x2, int y2, int z2, short @Nullable [] modernIds);
+
   void setBiome2d(int x, int z, @NonNull VirtualBiome biome);
 
   void setBiome3d(int x, int y, int z, @NonNull VirtualBiome biome);
@@ -26,8 +58,19 @@ public interface VirtualWorld {
 
   void setBlockLight(int x, int y, int z, byte light);
 
+  /**
+   * Copies the chunks into a new list, prefer {@link #forEachChunk(Consumer)} when the copy isn't needed.
+   */
   List<VirtualChunk> getChunks();
 
+  /**
+   * Visits every chunk of the world without copying them.
+   * The world must not be modified by the consumer.
+   */
+  void forEachChunk(@NonNull Consumer<? super VirtualChunk> consumer);
+
+  int getChunkCount();
+
   @Nullable
   VirtualChunk getChunk(int x, int z);
 
@@ -36,4 +36,25 @@ public interface PreparedPacket {
   <T> PreparedPacket prepare(Function<ProtocolVersion, T> packet, ProtocolVersion from);
 
   <T> PreparedPacket prepare(Function<ProtocolVersion, T> packet, ProtocolVersion from, ProtocolVersion to);
+
+  /**
+   * Appends all the packets of another prepared packet, in the order they were prepared.
+   *
+   * @param packet Prepared packet to append.
+   * @return this prepared packet.
+   */
+  PreparedPacket append(PreparedPacket packet);
+
+  /**
+   * Joins all the prepared packets into a single buffer per protocol version, so they are sent with one write.
+   * Nothing can be prepared or appended after this call.
+   *
+   * @return this prepared packet.
+   */
+  PreparedPacket build();
+
+  /**
+   * Releases the memory used by the prepared packets. The packet can't be sent after this call.
+   */
+  void release();
 }
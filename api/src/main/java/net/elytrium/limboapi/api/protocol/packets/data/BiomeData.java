@@ -7,9 +7,7 @@
 
 package net.elytrium.limboapi.api.protocol.packets.data;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Arrays;
 import net.elytrium.limboapi.api.chunk.VirtualBiome;
 import net.elytrium.limboapi.api.chunk.data.ChunkSnapshot;
 
@@ -19,28 +17,53 @@ import net.elytrium.limboapi.api.chunk.data.ChunkSnapshot;
 public class BiomeData {
 
   private final byte[] pre115Biomes = new byte[256];
-  private final int[] post115Biomes = new int[1024];
+  private final int[] post115Biomes;
 
   public BiomeData(ChunkSnapshot chunk) {
-    VirtualBiome[] biomes = chunk.getBiomes();
-    for (int i = 0; i < biomes.length; ++i) {
-      this.post115Biomes[i] = biomes[i].getId();
+    this(toIds(chunk.getBiomes()));
+  }
+
+  /**
+   * @param post115Biomes 1024 biome ids in the 1.15+ 4x4x4 order.
+   */
+  public BiomeData(int[] post115Biomes) {
+    this.post115Biomes = post115Biomes;
+
+    int first = post115Biomes[0];
+    boolean uniform = true;
+    for (int id : post115Biomes) {
+      if (id != first) {
+        uniform = false;
+        break;
+      }
+    }
+
+    if (uniform) {
+      Arrays.fill(this.pre115Biomes, (byte) first);
+      return;
     }
 
-    // Down sample 4x4x4 3d biomes to 2d XZ.
-    Map<Integer, Integer> samples = new HashMap<>(64);
+    // Down sample 4x4x4 3d biomes to 2d XZ, the most common id wins, the lowest one on ties.
+    int[] samples = new int[16];
     for (int x = 0; x < 16; x += 4) {
       for (int z = 0; z < 16; z += 4) {
-        samples.clear();
-        for (int y = 0; y < 256; y += 16) {
-          VirtualBiome biome = biomes[/*SimpleChunk.getBiomeIndex(x, y, z)*/((y >> 2) & 63) << 4 | ((z >> 2) & 3) << 2 | ((x >> 2) & 3)];
-          int curr = samples.getOrDefault(biome.getId(), 0);
-          samples.put(biome.getId(), curr + 1);
+        for (int y = 0, i = 0; y < 256; y += 16, ++i) {
+          samples[i] = post115Biomes[/*SimpleChunk.getBiomeIndex(x, y, z)*/((y >> 2) & 63) << 4 | ((z >> 2) & 3) << 2 | ((x >> 2) & 3)];
+        }
+        Arrays.sort(samples);
+
+        int id = samples[0];
+        int count = 0;
+        for (int i = 0, run = 1; i < samples.length; ++i, ++run) {
+          if (i == samples.length - 1 || samples[i + 1] != samples[i]) {
+            if (run > count) {
+              id = samples[i];
+              count = run;
+            }
+            run = 0;
+          }
         }
-        int id = samples.entrySet().stream()
-            .max(Map.Entry.comparingByValue())
-            .orElseThrow(() -> new NoSuchElementException("No value present."))
-            .getKey();
+
         for (int xl = x; xl < x + 4; ++xl) {
           for (int zl = z; zl < z + 4; ++zl) {
             this.pre115Biomes[(zl << 4) + xl] = (byte) id;
@@ -50,6 +73,15 @@ public class BiomeData {
     }
   }
 
+  private static int[] toIds(VirtualBiome[] biomes) {
+    int[] ids = new int[biomes.length];
+    for (int i = 0; i < biomes.length; ++i) {
+      ids[i] = biomes[i].getId();
+    }
+
+    return ids;
+  }
+
   public byte[] getPre115Biomes() {
     return this.pre115Biomes;
   }
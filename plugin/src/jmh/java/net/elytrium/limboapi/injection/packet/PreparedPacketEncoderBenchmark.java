@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboapi.injection.packet;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.proxy.network.Connections;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Measures the allocations per write of a built prepared packet, run with "gradlew :limboapi-plugin:jmh" (the gc profiler is enabled in the build).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PreparedPacketEncoderBenchmark {
+
+  private static final ProtocolVersion VERSION = ProtocolVersion.MAXIMUM_VERSION;
+
+  @Param({"1", "16", "256"})
+  public int packetCount;
+
+  @Param({"64", "4096"})
+  public int packetSize;
+
+  private PreparedPacketImpl preparedPacket;
+  private EmbeddedChannel uncompressedChannel;
+  private EmbeddedChannel compressedChannel;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    List<ByteBuf> packets = new ArrayList<>(this.packetCount);
+    List<ByteBuf> compressedPackets = new ArrayList<>(this.packetCount);
+    for (int i = 0; i < this.packetCount; ++i) {
+      byte[] data = new byte[this.packetSize];
+      random.nextBytes(data);
+      packets.add(Unpooled.wrappedBuffer(data));
+      // The encoder doesn't look into the frames, so the same bytes can stand for the compressed ones.
+      compressedPackets.add(Unpooled.wrappedBuffer(data));
+    }
+
+    this.preparedPacket = new PreparedPacketImpl(VERSION, VERSION, 256, 6, new PreparedVersionTracker(), false);
+    this.preparedPacket.putPackets(VERSION, packets, compressedPackets);
+    this.preparedPacket.build();
+
+    // The same handler order as in the Velocity pipeline, the sink stands for the frame encoder and everything before it.
+    this.uncompressedChannel = new EmbeddedChannel();
+    this.uncompressedChannel.pipeline()
+        .addLast(Connections.FRAME_ENCODER, new SinkHandler())
+        .addLast(Connections.MINECRAFT_ENCODER, new ChannelOutboundHandlerAdapter())
+        .addLast(new PreparedPacketEncoder(VERSION));
+
+    this.compressedChannel = new EmbeddedChannel();
+    this.compressedChannel.pipeline()
+        .addLast(Connections.FRAME_ENCODER, new SinkHandler())
+        .addLast(Connections.COMPRESSION_ENCODER, new ChannelOutboundHandlerAdapter())
+        .addLast(Connections.MINECRAFT_ENCODER, new ChannelOutboundHandlerAdapter())
+        .addLast(new PreparedPacketEncoder(VERSION));
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.uncompressedChannel.finishAndReleaseAll();
+    this.compressedChannel.finishAndReleaseAll();
+    this.preparedPacket.release();
+  }
+
+  @Benchmark
+  public void writeUncompressed() {
+    this.uncompressedChannel.write(this.preparedPacket, this.uncompressedChannel.voidPromise());
+  }
+
+  @Benchmark
+  public void writeCompressed() {
+    this.compressedChannel.write(this.preparedPacket, this.compressedChannel.voidPromise());
+  }
+
+  private static class SinkHandler extends ChannelOutboundHandlerAdapter {
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+      ReferenceCountUtil.release(msg);
+      promise.trySuccess();
+    }
+  }
+}
@@ -28,19 +28,28 @@ import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
 import com.velocitypowered.api.proxy.server.RegisteredServer;
 import com.velocitypowered.proxy.VelocityServer;
+import com.velocitypowered.proxy.protocol.MinecraftPacket;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.File;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 import net.elytrium.java.commons.config.YamlConfig;
 import net.elytrium.java.commons.mc.serialization.Serializer;
@@ -65,8 +74,11 @@ import net.elytrium.limboapi.injection.event.EventManagerHook;
 import net.elytrium.limboapi.injection.login.LoginListener;
 import net.elytrium.limboapi.injection.login.LoginTasksQueue;
 import net.elytrium.limboapi.injection.packet.PlayerListItemHook;
+import net.elytrium.limboapi.injection.packet.PreparedPacketCache;
 import net.elytrium.limboapi.injection.packet.PreparedPacketImpl;
+import net.elytrium.limboapi.injection.packet.PreparedVersionTracker;
 import net.elytrium.limboapi.protocol.LimboProtocol;
+import net.elytrium.limboapi.protocol.util.PooledDeflater;
 import net.elytrium.limboapi.server.CachedPackets;
 import net.elytrium.limboapi.server.LimboImpl;
 import net.elytrium.limboapi.server.world.SimpleBlock;
@@ -77,6 +89,7 @@ import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.serializer.ComponentSerializer;
 import org.bstats.velocity.Metrics;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 
 @Plugin(
@@ -97,18 +110,25 @@ public class LimboAPI implements LimboFactory {
   private static Logger LOGGER;
   @MonotonicNonNull
   private static Serializer SERIALIZER;
+  private static final AtomicReference<ExecutorService> PREPARATION_EXECUTOR = new AtomicReference<>();
+  // Submits to the current pool, so the tasks of a refresh that has started before a reload go to the new pool instead of being rejected.
+  private static final Executor PREPARATION_EXECUTOR_FORWARDER = LimboAPI::executePreparation;
 
   private final VelocityServer server;
   private final Metrics.Factory metricsFactory;
   private final File configFile;
   private final List<Player> players;
   private final CachedPackets packets;
+  private final PreparedVersionTracker versionTracker;
+  private final PreparedPacketCache packetCache;
   private final HashMap<Player, LoginTasksQueue> loginQueue;
   private final HashMap<Player, RegisteredServer> nextServer;
   private final HashMap<Player, UUID> initialID;
 
   private ProtocolVersion minVersion;
   private ProtocolVersion maxVersion;
+  private int compressionThreshold;
+  private int compressionLevel;
   private LoginListener loginListener;
 
   @Inject
@@ -120,6 +140,8 @@ public class LimboAPI implements LimboFactory {
     this.configFile = dataDirectory.resolve("config.yml").toFile();
     this.players = new ArrayList<>();
     this.packets = new CachedPackets(this);
+    this.versionTracker = new PreparedVersionTracker();
+    this.packetCache = new PreparedPacketCache(dataDirectory.resolve("cache"));
     this.loginQueue = new HashMap<>();
     this.nextServer = new HashMap<>();
     this.initialID = new HashMap<>();
@@ -189,7 +211,11 @@ public class LimboAPI implements LimboFactory {
 
     LOGGER.info("Creating and preparing packets...");
     this.reloadVersion();
+    this.reloadWarmVersions();
+    this.reloadPreparationExecutor();
+    this.reloadCompression();
     this.packets.createPackets();
+    this.packetCache.pruneUnused();
     this.loginListener = new LoginListener(this, this.server);
     this.server.getEventManager().register(this, this.loginListener);
     this.server.getEventManager().register(this, new DisconnectListener(this));
@@ -197,13 +223,8 @@ public class LimboAPI implements LimboFactory {
   }
 
   private void reloadVersion() {
-    if (Settings.IMP.MAIN.PREPARE_MAX_VERSION.equals("LATEST")) {
-      this.maxVersion = ProtocolVersion.MAXIMUM_VERSION;
-    } else {
-      this.maxVersion = ProtocolVersion.valueOf("MINECRAFT_" + Settings.IMP.MAIN.PREPARE_MAX_VERSION);
-    }
-
-    this.minVersion = ProtocolVersion.valueOf("MINECRAFT_" + Settings.IMP.MAIN.PREPARE_MIN_VERSION);
+    this.maxVersion = this.parseVersion(Settings.IMP.MAIN.PREPARE_MAX_VERSION);
+    this.minVersion = this.parseVersion(Settings.IMP.MAIN.PREPARE_MIN_VERSION);
 
     if (ProtocolVersion.MAXIMUM_VERSION.compareTo(this.maxVersion) > 0 || ProtocolVersion.MINIMUM_VERSION.compareTo(this.minVersion) < 0) {
       LOGGER.warn(
@@ -214,6 +235,66 @@ public class LimboAPI implements LimboFactory {
     }
   }
 
+  private ProtocolVersion parseVersion(String version) {
+    if (version.equals("LATEST")) {
+      return ProtocolVersion.MAXIMUM_VERSION;
+    } else {
+      return ProtocolVersion.valueOf("MINECRAFT_" + version);
+    }
+  }
+
+  private void reloadWarmVersions() {
+    Set<ProtocolVersion> warmVersions = EnumSet.noneOf(ProtocolVersion.class);
+    for (String version : Settings.IMP.MAIN.WARM_VERSIONS) {
+      warmVersions.add(this.parseVersion(version));
+    }
+
+    this.versionTracker.reload(warmVersions);
+  }
+
+  private void reloadPreparationExecutor() {
+    int threads = Settings.IMP.MAIN.PREPARATION_THREADS == 0 ? Runtime.getRuntime().availableProcessors() : Settings.IMP.MAIN.PREPARATION_THREADS;
+    ExecutorService oldExecutor = PREPARATION_EXECUTOR.getAndSet(threads > 1 ? new ForkJoinPool(threads) : null);
+    if (oldExecutor != null) {
+      // The already submitted tasks are still completed by the old pool.
+      oldExecutor.shutdown();
+    }
+  }
+
+  private void reloadCompression() {
+    if (Settings.IMP.MAIN.COMPRESS_PREPARED_PACKETS) {
+      this.compressionThreshold = this.server.getConfiguration().getCompressionThreshold();
+    } else {
+      this.compressionThreshold = -1;
+    }
+
+    // java.util.zip accepts only the levels up to 9, while libdeflate accepts up to 12, so the levels have to work with both.
+    int level = Settings.IMP.MAIN.COMPRESSION_LEVEL;
+    if (level != -1 && (level < 1 || level > 9)) {
+      Settings.IMP.MAIN.COMPRESSION_LEVEL = this.clampCompressionLevel("compression-level", level);
+    }
+
+    if (Settings.IMP.MAIN.COMPRESSION_LEVEL == -1) {
+      this.compressionLevel = this.server.getConfiguration().getCompressionLevel();
+    } else {
+      this.compressionLevel = Settings.IMP.MAIN.COMPRESSION_LEVEL;
+    }
+
+    int legacyLevel = Settings.IMP.MAIN.LEGACY_CHUNK_COMPRESSION_LEVEL;
+    if (legacyLevel < 1 || legacyLevel > 9) {
+      Settings.IMP.MAIN.LEGACY_CHUNK_COMPRESSION_LEVEL = this.clampCompressionLevel("legacy-chunk-compression-level", legacyLevel);
+    }
+
+    // The compressors of the old levels aren't needed anymore.
+    PooledDeflater.dispose();
+  }
+
+  private int clampCompressionLevel(String name, int level) {
+    int clampedLevel = Math.max(1, Math.min(9, level));
+    LOGGER.warn("{} should be from 1 to 9, using {} instead of {}.", name, clampedLevel, level);
+    return clampedLevel;
+  }
+
   @Override
   public VirtualBlock createSimpleBlock(Block block) {
     return SimpleBlock.fromLegacyId((short) block.getId());
@@ -232,7 +313,7 @@ public class LimboAPI implements LimboFactory {
   @Override
   public VirtualBlock createSimpleBlock(short id, boolean modern) {
     if (modern) {
-      return SimpleBlock.solid(id);
+      return SimpleBlock.fromModernId(id);
     } else {
       return SimpleBlock.fromLegacyId(id);
     }
@@ -265,7 +346,27 @@ public class LimboAPI implements LimboFactory {
 
   @Override
   public PreparedPacket createPreparedPacket() {
-    return new PreparedPacketImpl(this.minVersion, this.maxVersion);
+    return new PreparedPacketImpl(this.minVersion, this.maxVersion, this.compressionThreshold, this.compressionLevel, this.versionTracker);
+  }
+
+  /**
+   * @param cacheFiles Receives the used cache files, which should be passed to {@link #releaseCachedFiles} when the packets are released.
+   */
+  public PreparedPacket prepareCachedPackets(List<? extends MinecraftPacket> packets, String name, ProtocolVersion from, ProtocolVersion to,
+      Collection<Path> cacheFiles) {
+    if (Settings.IMP.MAIN.PERSISTENT_CACHE) {
+      return this.packetCache.prepare(
+          packets, name, from, to,
+          lazy -> new PreparedPacketImpl(this.minVersion, this.maxVersion, this.compressionThreshold, this.compressionLevel, this.versionTracker, lazy),
+          cacheFiles
+      );
+    } else {
+      return this.createPreparedPacket().prepare(packets, from, to);
+    }
+  }
+
+  public void releaseCachedFiles(Collection<Path> cacheFiles) {
+    this.packetCache.releaseFiles(cacheFiles);
   }
 
   @Override
@@ -321,6 +422,10 @@ public class LimboAPI implements LimboFactory {
     return this.packets;
   }
 
+  public PreparedVersionTracker getVersionTracker() {
+    return this.versionTracker;
+  }
+
   public void addLoginQueue(Player player, LoginTasksQueue queue) {
     this.loginQueue.put(player, queue);
   }
@@ -384,5 +489,33 @@ public class LimboAPI implements LimboFactory {
   public static Serializer getSerializer() {
     return SERIALIZER;
   }
+
+  private static void executePreparation(Runnable task) {
+    while (true) {
+      ExecutorService executor = PREPARATION_EXECUTOR.get();
+      if (executor == null) {
+        // The pool was disabled by a reload, so the rest of the tasks are run by the caller.
+        task.run();
+        return;
+      }
+
+      try {
+        executor.execute(task);
+        return;
+      } catch (RejectedExecutionException e) {
+        if (PREPARATION_EXECUTOR.get() == executor) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return null if the packets should be prepared on the calling thread.
+   */
+  @Nullable
+  public static Executor getPreparationExecutor() {
+    return PREPARATION_EXECUTOR.get() == null ? null : PREPARATION_EXECUTOR_FORWARDER;
+  }
 }
 
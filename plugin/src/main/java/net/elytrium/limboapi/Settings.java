@@ -65,6 +65,60 @@ public class Settings extends YamlConfig {
     public String PREPARE_MIN_VERSION = "1_7_2";
     public String PREPARE_MAX_VERSION = "LATEST";
 
+    @Comment({
+        "Stores the prepared packets already compressed for the Velocity compression threshold,",
+        "so the same frames aren't compressed again for every player who joins the Limbo."
+    })
+    public boolean COMPRESS_PREPARED_PACKETS = true;
+    @Comment("Compression level of the prepared packets, from 1 to 9. -1 to use the compression level from the Velocity config.")
+    public int COMPRESSION_LEVEL = -1;
+    @Comment("Compression level of the 1.7 chunk data, from 1 to 9. Higher levels are much slower and barely shrink the Limbo chunks.")
+    public int LEGACY_CHUNK_COMPRESSION_LEVEL = 6;
+    @Comment("Prepared packets smaller than this size (in bytes) are sent uncompressed, even if they are bigger than the compression threshold.")
+    public int MIN_COMPRESSED_PACKET_SIZE = 256;
+    @Comment("Disable to halve the RAM consumption of the prepared packets, if the compression isn't disabled for some players by other plugins.")
+    public boolean SAVE_UNCOMPRESSED_PACKETS = true;
+    @Comment({
+        "Stores the prepared packets in the direct (off-heap) memory, so they are written to the sockets without copying and don't fill the heap.",
+        "Don't forget to increase -XX:MaxDirectMemorySize if you have big worlds and the full range of versions."
+    })
+    public boolean DIRECT_MEMORY_PREPARED_PACKETS = false;
+
+    @Comment({
+        "Prepares only the warm versions at once, the other versions are prepared when the first player with this version joins the Limbo.",
+        "Useful if you have big worlds and the full range of versions, but only a few of them are really used."
+    })
+    public boolean LAZY_PREPARATION = false;
+    @Comment("Versions that are always prepared at once. See PREPARE_MIN_VERSION for the available versions.")
+    public List<String> WARM_VERSIONS = List.of("1_8", "LATEST");
+    @Comment("Versions that were used by at least this percent of joined players are prepared at once too. 0 to disable.")
+    public int ADAPTIVE_WARM_VERSIONS_PERCENT = 10;
+    @Comment("Memory budget (in megabytes) of the lazily prepared versions. The least used versions are released when it is exceeded.")
+    public int LAZY_PREPARATION_MEMORY_BUDGET = 256;
+    @Comment({
+        "Saves the prepared chunk packets to the plugins/limboapi/cache directory, so they aren't prepared again after the restart",
+        "if the world, the versions and the compression settings haven't changed. The directory can be safely deleted."
+    })
+    public boolean PERSISTENT_CACHE = true;
+    @Comment("Threads used to prepare the chunks concurrently. 0 to use the number of CPU cores, 1 to prepare them on the calling thread.")
+    public int PREPARATION_THREADS = 0;
+
+    @Comment({
+        "Only the chunks within this radius around the spawn chunk are sent, starting from the nearest ones.",
+        "Also sent to the clients as the view distance, from 2 to 32. Can be changed for each Limbo by Limbo#setViewDistance."
+    })
+    public int VIEW_DISTANCE = 10;
+
+    @Comment({
+        "Worlds with more chunks than this are streamed to the players in batches, only while their connections are writable,",
+        "instead of being written at once with the rest of the spawn packets. -1 to disable."
+    })
+    public int CHUNK_STREAMING_THRESHOLD = 256;
+    @Comment("Amount of chunks in one streamed batch.")
+    public int CHUNK_STREAMING_BATCH_SIZE = 16;
+    @Comment("Players that haven't received any streamed chunks batch in this time (in milliseconds) are disconnected. 0 to disable.")
+    public int CHUNK_STREAMING_TIMEOUT = 30000;
+
     @Comment("Helpful if you want some plugins proceed before LimboAPI. For example, it is needed to Floodgate to replace UUID.")
     public List<String> PRE_LIMBO_PROFILE_REQUEST_PLUGINS = List.of("floodgate", "geyser");
 
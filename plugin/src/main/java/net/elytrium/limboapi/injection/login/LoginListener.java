@@ -69,6 +69,7 @@ import net.elytrium.limboapi.api.event.LoginLimboRegisterEvent;
 import net.elytrium.limboapi.injection.dummy.ClosedChannel;
 import net.elytrium.limboapi.injection.dummy.ClosedMinecraftConnection;
 import net.elytrium.limboapi.injection.dummy.DummyEventPool;
+import net.elytrium.limboapi.injection.packet.PacketTemplate;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 
@@ -84,6 +85,19 @@ public class LoginListener {
   private static final Field delegate;
   private static final Field spawned;
 
+  private static final PacketTemplate.Slot<UUID> LOGIN_UUID = PacketTemplate.uuidSlot(0);
+  private static final PacketTemplate.Slot<String> LOGIN_USERNAME = PacketTemplate.stringSlot(1);
+  private static final PacketTemplate LOGIN_SUCCESS = new PacketTemplate(
+      StateRegistry.LOGIN.clientbound,
+      version -> {
+        ServerLoginSuccess success = new ServerLoginSuccess();
+        success.setUsername(LOGIN_USERNAME.getSentinel());
+        success.setUuid(LOGIN_UUID.getSentinel());
+        return success;
+      },
+      LOGIN_UUID, LOGIN_USERNAME
+  );
+
   private final LimboAPI plugin;
   private final VelocityServer server;
   private final List<String> onlineMode = new ArrayList<>();
@@ -207,10 +221,7 @@ public class LoginListener {
           playerUniqueId = UuidUtils.generateOfflinePlayerUuid(player.getUsername());
         }
 
-        ServerLoginSuccess success = new ServerLoginSuccess();
-        success.setUsername(player.getUsername());
-        success.setUuid(playerUniqueId);
-        connection.write(success);
+        LOGIN_SUCCESS.write(connection, playerUniqueId, player.getUsername());
 
         this.plugin.setInitialID(player, playerUniqueId);
 
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboapi.injection.packet;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.api.util.GameProfile;
+import com.velocitypowered.proxy.connection.MinecraftConnection;
+import com.velocitypowered.proxy.protocol.MinecraftPacket;
+import com.velocitypowered.proxy.protocol.ProtocolUtils;
+import com.velocitypowered.proxy.protocol.ProtocolUtils.Direction;
+import com.velocitypowered.proxy.protocol.StateRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import net.elytrium.limboapi.protocol.LimboProtocol;
+
+// A packet that is encoded once per version with the sentinel values of the slots, and then copied for each player with the real values.
+public class PacketTemplate {
+
+  private final StateRegistry.PacketRegistry registry;
+  private final Function<ProtocolVersion, MinecraftPacket> packet;
+  private final Slot<?>[] slots;
+  // Compiled by the event loops and the login threads, so the templates are published through the atomic array.
+  private final AtomicReferenceArray<CompiledTemplate> compiled = new AtomicReferenceArray<>(ProtocolVersion.values().length);
+
+  public PacketTemplate(StateRegistry.PacketRegistry registry, Function<ProtocolVersion, MinecraftPacket> packet, Slot<?>... slots) {
+    this.registry = registry;
+    this.packet = packet;
+    this.slots = slots;
+  }
+
+  public void write(MinecraftConnection connection, Object... values) {
+    connection.write(this.create(connection.getChannel().alloc(), connection.getProtocolVersion(), values));
+  }
+
+  public void delayedWrite(MinecraftConnection connection, Object... values) {
+    connection.delayedWrite(this.create(connection.getChannel().alloc(), connection.getProtocolVersion(), values));
+  }
+
+  // Returns the packet ID and the packet body, as it would be written by the Velocity packet encoder.
+  public ByteBuf create(ByteBufAllocator allocator, ProtocolVersion version, Object... values) {
+    CompiledTemplate template = this.compiled.get(version.ordinal());
+    if (template == null) {
+      // Two threads may compile the same version at once, both results are equal, so it doesn't matter which one is saved.
+      template = this.compile(version);
+      this.compiled.set(version.ordinal(), template);
+    }
+
+    ByteBuf buf = allocator.buffer(template.data.length + 64);
+    int position = 0;
+    for (int i = 0; i < template.slots.length; ++i) {
+      buf.writeBytes(template.data, position, template.starts[i] - position);
+      this.writeSlot(buf, this.slots[template.slots[i]], values[template.slots[i]], template.encodings[i]);
+      position = template.ends[i];
+    }
+
+    buf.writeBytes(template.data, position, template.data.length - position);
+    return buf;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> void writeSlot(ByteBuf buf, Slot<T> slot, Object value, int encoding) {
+    slot.write(buf, (T) value, encoding);
+  }
+
+  private CompiledTemplate compile(ProtocolVersion version) {
+    MinecraftPacket packet = this.packet.apply(version);
+    int id = LimboProtocol.getPacketId(this.registry, packet.getClass(), version);
+    if (id == Integer.MIN_VALUE) {
+      throw new IllegalStateException("Packet " + packet.getClass().getSimpleName() + " isn't registered for " + version);
+    }
+
+    ByteBuf buf = Unpooled.buffer();
+    try {
+      ProtocolUtils.writeVarInt(buf, id);
+      packet.encode(buf, Direction.CLIENTBOUND, version);
+      byte[] data = ByteBufUtil.getBytes(buf);
+
+      List<int[]> found = new ArrayList<>();
+      for (int slot = 0; slot < this.slots.length; ++slot) {
+        byte[][] patterns = this.slots[slot].getPatterns();
+        for (int encoding = 0; encoding < patterns.length; ++encoding) {
+          int start = indexOf(data, patterns[encoding]);
+          if (start != -1) {
+            found.add(new int[] {start, start + patterns[encoding].length, slot, encoding});
+            break;
+          }
+        }
+      }
+
+      // Slots that aren't found are just not sent in this version.
+      found.sort((a, b) -> Integer.compare(a[0], b[0]));
+      int[] starts = new int[found.size()];
+      int[] ends = new int[found.size()];
+      int[] slots = new int[found.size()];
+      int[] encodings = new int[found.size()];
+      for (int i = 0; i < found.size(); ++i) {
+        int[] slot = found.get(i);
+        if (i != 0 && slot[0] < ends[i - 1]) {
+          throw new IllegalStateException("Slots of the " + packet.getClass().getSimpleName() + " template are overlapping in " + version);
+        }
+
+        starts[i] = slot[0];
+        ends[i] = slot[1];
+        slots[i] = slot[2];
+        encodings[i] = slot[3];
+      }
+
+      return new CompiledTemplate(data, starts, ends, slots, encodings);
+    } finally {
+      buf.release();
+    }
+  }
+
+  private static int indexOf(byte[] data, byte[] pattern) {
+    for (int i = 0, last = data.length - pattern.length; i <= last; ++i) {
+      if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private static byte[] encode(Consumer<ByteBuf> writer) {
+    ByteBuf buf = Unpooled.buffer();
+    try {
+      writer.accept(buf);
+      return ByteBufUtil.getBytes(buf);
+    } finally {
+      buf.release();
+    }
+  }
+
+  public static Slot<UUID> uuidSlot(int index) {
+    return new UuidSlot(new UUID(0x4C696D626F415049L, 0x54656D706C617465L + index));
+  }
+
+  public static Slot<String> stringSlot(int index) {
+    // Usernames can't contain #, and 16 chars are still valid for the 1.7 PlayerListItem.
+    return new StringSlot(String.format("LimboTemplate#%02d", index));
+  }
+
+  public static Slot<Integer> intSlot(int index) {
+    // Negative values have the longest VarInt form, and the bytes of the short form can't be a part of a string.
+    return new IntSlot(0x8BADF000 | index);
+  }
+
+  public static Slot<List<GameProfile.Property>> propertiesSlot(int index) {
+    return new PropertiesSlot(List.of(new GameProfile.Property(String.format("LimboTemplate#%02d", index), "", "")));
+  }
+
+  public abstract static class Slot<T> {
+
+    private final T sentinel;
+    // Created lazily by any thread, the volatile write publishes the complete array.
+    private volatile byte[][] patterns;
+
+    private Slot(T sentinel) {
+      this.sentinel = sentinel;
+    }
+
+    public T getSentinel() {
+      return this.sentinel;
+    }
+
+    // The possible encodings of the sentinel value, from the most to the least specific one.
+    private byte[][] getPatterns() {
+      byte[][] patterns = this.patterns;
+      if (patterns == null) {
+        patterns = this.createPatterns(this.sentinel);
+        this.patterns = patterns;
+      }
+
+      return patterns;
+    }
+
+    abstract byte[][] createPatterns(T sentinel);
+
+    abstract void write(ByteBuf buf, T value, int encoding);
+  }
+
+  private static class UuidSlot extends Slot<UUID> {
+
+    private UuidSlot(UUID sentinel) {
+      super(sentinel);
+    }
+
+    @Override
+    byte[][] createPatterns(UUID sentinel) {
+      return new byte[][] {
+          encode(buf -> ProtocolUtils.writeUuid(buf, sentinel)),
+          encode(buf -> ProtocolUtils.writeString(buf, sentinel.toString())),
+          encode(buf -> ProtocolUtils.writeString(buf, sentinel.toString().replace("-", "")))
+      };
+    }
+
+    @Override
+    void write(ByteBuf buf, UUID value, int encoding) {
+      if (encoding == 0) {
+        ProtocolUtils.writeUuid(buf, value);
+      } else if (encoding == 1) {
+        ProtocolUtils.writeString(buf, value.toString());
+      } else {
+        ProtocolUtils.writeString(buf, value.toString().replace("-", ""));
+      }
+    }
+  }
+
+  private static class StringSlot extends Slot<String> {
+
+    private StringSlot(String sentinel) {
+      super(sentinel);
+    }
+
+    @Override
+    byte[][] createPatterns(String sentinel) {
+      return new byte[][] {
+          encode(buf -> ProtocolUtils.writeString(buf, sentinel))
+      };
+    }
+
+    @Override
+    void write(ByteBuf buf, String value, int encoding) {
+      ProtocolUtils.writeString(buf, value);
+    }
+  }
+
+  private static class IntSlot extends Slot<Integer> {
+
+    private IntSlot(Integer sentinel) {
+      super(sentinel);
+    }
+
+    @Override
+    byte[][] createPatterns(Integer sentinel) {
+      return new byte[][] {
+          encode(buf -> buf.writeLong(sentinel)),
+          encode(buf -> ProtocolUtils.writeVarInt(buf, sentinel)),
+          encode(buf -> buf.writeInt(sentinel)),
+          encode(buf -> buf.writeShort(sentinel))
+      };
+    }
+
+    @Override
+    void write(ByteBuf buf, Integer value, int encoding) {
+      if (encoding == 0) {
+        buf.writeLong(value);
+      } else if (encoding == 1) {
+        ProtocolUtils.writeVarInt(buf, value);
+      } else if (encoding == 2) {
+        buf.writeInt(value);
+      } else {
+        buf.writeShort(value);
+      }
+    }
+  }
+
+  private static class PropertiesSlot extends Slot<List<GameProfile.Property>> {
+
+    private PropertiesSlot(List<GameProfile.Property> sentinel) {
+      super(sentinel);
+    }
+
+    @Override
+    byte[][] createPatterns(List<GameProfile.Property> sentinel) {
+      return new byte[][] {
+          encode(buf -> ProtocolUtils.writeProperties(buf, sentinel))
+      };
+    }
+
+    @Override
+    void write(ByteBuf buf, List<GameProfile.Property> value, int encoding) {
+      ProtocolUtils.writeProperties(buf, value);
+    }
+  }
+
+  private static class CompiledTemplate {
+
+    private final byte[] data;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] slots;
+    private final int[] encodings;
+
+    private CompiledTemplate(byte[] data, int[] starts, int[] ends, int[] slots, int[] encodings) {
+      this.data = data;
+      this.starts = starts;
+      this.ends = ends;
+      this.slots = slots;
+      this.encodings = encodings;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboapi.injection.packet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Shares one read-only buffer between the identical prepared frames of all versions and Limbos.
+public class PreparedBufferPool {
+
+  private static final Map<Key, Entry> BUFFERS = new ConcurrentHashMap<>();
+  private static final AtomicLong INTERNED_BYTES = new AtomicLong();
+  private static final AtomicLong STORED_BYTES = new AtomicLong();
+
+  public static ByteBuf intern(ByteBuf buf) {
+    INTERNED_BYTES.addAndGet(buf.readableBytes());
+    ByteBuf[] result = new ByteBuf[1];
+    BUFFERS.compute(new Key(buf), (key, stored) -> {
+      if (stored == null) {
+        STORED_BYTES.addAndGet(buf.readableBytes());
+        // The pool holds the original reference, the packets hold the duplicates.
+        stored = new Entry(buf.asReadOnly());
+      } else {
+        buf.release();
+      }
+
+      ++stored.interns;
+      result[0] = stored.buf.retainedDuplicate();
+      return stored;
+    });
+
+    return result[0];
+  }
+
+  // Releases the buffers that aren't used by any prepared packet anymore.
+  // Scans the whole pool, so it should be called once after a batch of releases (e.g. a refresh), not after every release.
+  public static void purge() {
+    for (Key key : BUFFERS.keySet()) {
+      BUFFERS.computeIfPresent(key, (k, stored) -> {
+        if (stored.buf.refCnt() == 1) {
+          int size = stored.buf.readableBytes();
+          INTERNED_BYTES.addAndGet(-(long) size * stored.interns);
+          STORED_BYTES.addAndGet(-size);
+          stored.buf.release();
+          return null;
+        }
+
+        return stored;
+      });
+    }
+  }
+
+  // How many bytes were prepared per each byte that was actually stored.
+  public static double getDeduplicationRatio() {
+    long stored = STORED_BYTES.get();
+    return stored == 0 ? 1.0 : (double) INTERNED_BYTES.get() / stored;
+  }
+
+  private static class Entry {
+
+    private final ByteBuf buf;
+    private long interns;
+
+    private Entry(ByteBuf buf) {
+      this.buf = buf;
+    }
+  }
+
+  private static class Key {
+
+    private final ByteBuf buf;
+    private final int hash;
+
+    private Key(ByteBuf buf) {
+      this.buf = buf;
+      this.hash = ByteBufUtil.hashCode(buf);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (o == null || this.getClass() != o.getClass()) {
+        return false;
+      }
+
+      return ByteBufUtil.equals(this.buf, ((Key) o).buf);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboapi.injection.packet;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.proxy.protocol.MinecraftPacket;
+import com.velocitypowered.proxy.protocol.ProtocolUtils.Direction;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import net.elytrium.limboapi.BuildConstants;
+import net.elytrium.limboapi.LimboAPI;
+import net.elytrium.limboapi.Settings;
+import net.elytrium.limboapi.protocol.util.HashablePacket;
+
+// Saves the prepared packets to the disk, so they aren't encoded again after the restart if nothing has changed.
+public class PreparedPacketCache {
+
+  private static final int MAGIC = 0x4C494D42;
+  private static final int FORMAT_VERSION = 2;
+  // The files that weren't used by any Limbo for this long are deleted on reload.
+  private static final long MAX_UNUSED_TIME = TimeUnit.DAYS.toMillis(7);
+
+  private final Path directory;
+  // How many Limbos use each file right now, a file is deleted as soon as nobody uses it.
+  private final Map<Path, Integer> fileReferences = new HashMap<>();
+  // Any change of the plugin may change the prepared bytes, so the snapshot builds with the same version name don't share the cache.
+  private final String buildFingerprint;
+
+  public PreparedPacketCache(Path directory) {
+    this.directory = directory;
+    this.buildFingerprint = createBuildFingerprint();
+  }
+
+  /**
+   * @param factory Creates a lazy prepared packet if the argument is true, and a fully prepared one otherwise.
+   * @param usedFiles Receives the cache file, which should be passed to {@link #releaseFiles} when the packet isn't used anymore.
+   */
+  public PreparedPacketImpl prepare(List<? extends MinecraftPacket> packets, String name, ProtocolVersion from, ProtocolVersion to,
+      Function<Boolean, PreparedPacketImpl> factory, Collection<Path> usedFiles) {
+    PreparedPacketImpl preparedPacket = factory.apply(false);
+    Path file = this.directory.resolve(this.hash(packets, name + ":" + from.getProtocol() + ":" + to.getProtocol(), preparedPacket) + ".bin");
+    this.retainFile(file);
+    usedFiles.add(file);
+
+    boolean lazy = Settings.IMP.MAIN.LAZY_PREPARATION;
+    if (Files.exists(file)) {
+      try {
+        this.load(file, preparedPacket);
+        touch(file);
+        return lazy ? wrapLazy(preparedPacket, factory) : preparedPacket;
+      } catch (IOException | RuntimeException e) {
+        LimboAPI.getLogger().warn("Failed to load the prepared packets cache {}, preparing them again.", file.getFileName(), e);
+        preparedPacket.release();
+        preparedPacket = factory.apply(false);
+      }
+    }
+
+    if (lazy) {
+      preparedPacket.release();
+      // Only the warm versions are prepared now, all the versions are encoded for the cache in the background.
+      this.saveAsync(file, () -> factory.apply(false).prepare(packets, from, to));
+      return factory.apply(true).prepare(packets, from, to);
+    }
+
+    preparedPacket.prepare(packets, from, to);
+    try {
+      this.save(file, preparedPacket);
+    } catch (IOException e) {
+      LimboAPI.getLogger().warn("Failed to save the prepared packets cache {}.", file.getFileName(), e);
+      return preparedPacket;
+    }
+
+    // The saved packets are mapped from the file instead of being kept in the heap.
+    PreparedPacketImpl mappedPacket = factory.apply(false);
+    try {
+      this.load(file, mappedPacket);
+    } catch (IOException | RuntimeException e) {
+      mappedPacket.release();
+      return preparedPacket;
+    }
+
+    preparedPacket.release();
+    return mappedPacket;
+  }
+
+  // The mapped packet contains all the versions, but they're backed by the file, so only the versions copied by the lazy packet use the memory.
+  private static PreparedPacketImpl wrapLazy(PreparedPacketImpl mappedPacket, Function<Boolean, PreparedPacketImpl> factory) {
+    PreparedPacketImpl lazyPacket = factory.apply(true).append(mappedPacket);
+    mappedPacket.release();
+    return lazyPacket;
+  }
+
+  private void saveAsync(Path file, Supplier<PreparedPacketImpl> preparation) {
+    Executor executor = LimboAPI.getPreparationExecutor();
+    CompletableFuture.runAsync(() -> {
+      PreparedPacketImpl preparedPacket = preparation.get();
+      try {
+        this.save(file, preparedPacket);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        preparedPacket.release();
+      }
+
+      // The Limbo may have been refreshed while the file was being saved.
+      synchronized (this.fileReferences) {
+        if (!this.fileReferences.containsKey(file)) {
+          this.deleteFile(file);
+        }
+      }
+    }, executor == null ? ForkJoinPool.commonPool() : executor).exceptionally(throwable -> {
+      LimboAPI.getLogger().warn("Failed to save the prepared packets cache {}.", file.getFileName(), throwable);
+      return null;
+    });
+  }
+
+  public void releaseFiles(Collection<Path> files) {
+    synchronized (this.fileReferences) {
+      for (Path file : files) {
+        Integer references = this.fileReferences.computeIfPresent(file, (key, value) -> value == 1 ? null : value - 1);
+        if (references == null) {
+          this.deleteFile(file);
+        }
+      }
+    }
+  }
+
+  // Deletes the files that were left by a crash or weren't used for a long time, e.g. the old worlds or the old plugin builds.
+  public void pruneUnused() {
+    if (!Files.isDirectory(this.directory)) {
+      return;
+    }
+
+    long minUseTime = System.currentTimeMillis() - MAX_UNUSED_TIME;
+    synchronized (this.fileReferences) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+        for (Path file : files) {
+          String fileName = file.getFileName().toString();
+          if (fileName.endsWith(".tmp")
+              || fileName.endsWith(".bin") && !this.fileReferences.containsKey(file) && Files.getLastModifiedTime(file).toMillis() < minUseTime) {
+            this.deleteFile(file);
+          }
+        }
+      } catch (IOException e) {
+        LimboAPI.getLogger().warn("Failed to prune the prepared packets cache.", e);
+      }
+    }
+  }
+
+  private void retainFile(Path file) {
+    synchronized (this.fileReferences) {
+      this.fileReferences.merge(file, 1, Integer::sum);
+    }
+  }
+
+  private void deleteFile(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      // Some systems don't allow to delete the mapped files, it will be deleted on the next reload then.
+      LimboAPI.getLogger().debug("Failed to delete the prepared packets cache {}.", file.getFileName(), e);
+    }
+  }
+
+  // The modification time is used as the last use time.
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      LimboAPI.getLogger().debug("Failed to update the prepared packets cache {}.", file.getFileName(), e);
+    }
+  }
+
+  private String hash(List<? extends MinecraftPacket> packets, String name, PreparedPacketImpl preparedPacket) {
+    MessageDigest digest = createDigest();
+    String key = FORMAT_VERSION + ":" + this.buildFingerprint + ":" + ProtocolVersion.MAXIMUM_VERSION.getProtocol() + ":" + name + ":"
+        + preparedPacket.getPreparationKey();
+    digest.update(key.getBytes(StandardCharsets.UTF_8));
+    // Every packet is hashed on its own, so the chunks are hashed concurrently, but the result doesn't depend on the threads.
+    Executor executor = LimboAPI.getPreparationExecutor();
+    if (executor == null || packets.size() < 2) {
+      packets.forEach(packet -> digest.update(hashPacket(packet)));
+    } else {
+      List<CompletableFuture<byte[]>> futures = new ArrayList<>(packets.size());
+      packets.forEach(packet -> futures.add(CompletableFuture.supplyAsync(() -> hashPacket(packet), executor)));
+      futures.forEach(future -> digest.update(future.join()));
+    }
+
+    return toHex(digest.digest());
+  }
+
+  private static byte[] hashPacket(MinecraftPacket packet) {
+    if (packet instanceof HashablePacket) {
+      MessageDigest digest = createDigest();
+      digest.update(packet.getClass().getName().getBytes(StandardCharsets.UTF_8));
+      digest.update(((HashablePacket) packet).getSourceHash());
+      return digest.digest();
+    }
+
+    // The latest version describes the content of the other packets, which are small, so encoding them is cheap.
+    ByteBuf buf = Unpooled.buffer();
+    try {
+      buf.writeCharSequence(packet.getClass().getName(), StandardCharsets.UTF_8);
+      packet.encode(buf, Direction.CLIENTBOUND, ProtocolVersion.MAXIMUM_VERSION);
+      MessageDigest digest = createDigest();
+      digest.update(buf.nioBuffer());
+      return digest.digest();
+    } finally {
+      buf.release();
+    }
+  }
+
+  private static String createBuildFingerprint() {
+    try {
+      CodeSource codeSource = PreparedPacketCache.class.getProtectionDomain().getCodeSource();
+      if (codeSource != null) {
+        Path jar = Path.of(codeSource.getLocation().toURI());
+        if (Files.isRegularFile(jar)) {
+          MessageDigest digest = createDigest();
+          try (InputStream input = Files.newInputStream(jar)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+              digest.update(buffer, 0, read);
+            }
+          }
+
+          return toHex(digest.digest());
+        }
+      }
+    } catch (IOException | URISyntaxException | RuntimeException e) {
+      LimboAPI.getLogger().warn("Failed to hash the plugin jar, the prepared packets cache is bound to the plugin version.", e);
+    }
+
+    return BuildConstants.LIMBO_VERSION;
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+
+    return hex.toString();
+  }
+
+  public static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void load(Path file, PreparedPacketImpl preparedPacket) throws IOException {
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    // Netty doesn't free the wrapped buffer, the file is unmapped by the GC when all the slices are released.
+    ByteBuf buf = Unpooled.wrappedBuffer(mapped);
+    try {
+      if (buf.readInt() != MAGIC || buf.readInt() != FORMAT_VERSION) {
+        throw new IOException("Unknown cache format");
+      }
+
+      int versions = buf.readInt();
+      for (int i = 0; i < versions; ++i) {
+        ProtocolVersion version = ProtocolVersion.getProtocolVersion(buf.readInt());
+        List<ByteBuf> packets = this.readPackets(buf);
+        List<ByteBuf> compressedPackets = this.readPackets(buf);
+        preparedPacket.putPackets(version, packets, compressedPackets);
+      }
+    } finally {
+      buf.release();
+    }
+  }
+
+  private List<ByteBuf> readPackets(ByteBuf buf) {
+    int count = buf.readInt();
+    List<ByteBuf> packets = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      packets.add(buf.readRetainedSlice(buf.readInt()));
+    }
+
+    return packets;
+  }
+
+  private void save(Path file, PreparedPacketImpl preparedPacket) throws IOException {
+    Files.createDirectories(this.directory);
+    Path tempFile = Files.createTempFile(this.directory, "prepared", ".tmp");
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+      output.writeInt(MAGIC);
+      output.writeInt(FORMAT_VERSION);
+      EnumSet<ProtocolVersion> versions = EnumSet.range(preparedPacket.getMinVersion(), preparedPacket.getMaxVersion());
+      output.writeInt(versions.size());
+      for (ProtocolVersion version : versions) {
+        output.writeInt(version.getProtocol());
+        this.writePackets(output, preparedPacket.getPackets(version));
+        this.writePackets(output, preparedPacket.getCompressedPackets(version));
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+
+    // The file appears at once, so a crash while writing never leaves a broken cache.
+    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void writePackets(DataOutputStream output, List<ByteBuf> packets) throws IOException {
+    if (packets == null) {
+      output.writeInt(0);
+      return;
+    }
+
+    output.writeInt(packets.size());
+    for (ByteBuf packet : packets) {
+      output.writeInt(packet.readableBytes());
+      packet.getBytes(packet.readerIndex(), output, packet.readableBytes());
+    }
+  }
+}
@@ -18,12 +18,16 @@
 package net.elytrium.limboapi.injection.packet;
 
 import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.proxy.network.Connections;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import java.util.ArrayList;
 import java.util.List;
+import net.elytrium.limboapi.LimboAPI;
 
-public class PreparedPacketEncoder extends MessageToMessageEncoder<PreparedPacketImpl> {
+public class PreparedPacketEncoder extends ChannelOutboundHandlerAdapter {
 
   private final ProtocolVersion protocolVersion;
 
@@ -32,11 +36,81 @@ public class PreparedPacketEncoder extends MessageToMessageEncoder<PreparedPacke
   }
 
   @Override
-  protected void encode(ChannelHandlerContext ctx, PreparedPacketImpl msg, List<Object> out) throws Exception {
-    if (msg.hasPacketsFor(this.protocolVersion)) {
-      msg.getPackets(this.protocolVersion).stream()
-          .map(ByteBuf::retainedDuplicate)
-          .forEach(out::add);
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+    if (!(msg instanceof PreparedPacketImpl)) {
+      ctx.write(msg, promise);
+      return;
+    }
+
+    PreparedPacketImpl preparedPacket = (PreparedPacketImpl) msg;
+    List<ByteBuf> buffers = new ArrayList<>();
+    ChannelHandlerContext target;
+    try {
+      // Prepares the version if it isn't prepared yet, the buffers are only retained under the lock and written after it.
+      target = preparedPacket.pinVersion(this.protocolVersion, () -> this.retainBuffers(ctx, preparedPacket, buffers));
+    } catch (IllegalStateException e) {
+      LimboAPI.getLogger().error("Failed to write the prepared packets to {}", ctx.channel().remoteAddress(), e);
+      promise.setFailure(e);
+      return;
+    }
+
+    if (buffers.isEmpty()) {
+      promise.setSuccess();
+      return;
+    }
+
+    int last = buffers.size() - 1;
+    for (int i = 0; i < last; ++i) {
+      target.write(buffers.get(i), target.voidPromise());
+    }
+
+    target.write(buffers.get(last), promise);
+  }
+
+  // Adds the retained duplicates to the list, and returns the context that they should be written from.
+  private ChannelHandlerContext retainBuffers(ChannelHandlerContext ctx, PreparedPacketImpl preparedPacket, List<ByteBuf> buffers) {
+    ChannelHandlerContext compressionContext = ctx.pipeline().context(Connections.COMPRESSION_ENCODER);
+    if (compressionContext != null) {
+      // Writing from the compressor context passes the frames straight to the next handler, so they aren't compressed again.
+      ByteBuf compressedFrame = preparedPacket.getCompressedFrame(this.protocolVersion);
+      if (compressedFrame != null) {
+        buffers.add(compressedFrame.retainedDuplicate());
+        return compressionContext;
+      }
+
+      List<ByteBuf> compressedPackets = preparedPacket.getCompressedPackets(this.protocolVersion);
+      if (compressedPackets != null) {
+        retainAll(compressedPackets, buffers);
+        return compressionContext;
+      }
+    } else {
+      ByteBuf framedPackets = preparedPacket.getFramedPackets(this.protocolVersion);
+      if (framedPackets != null) {
+        ChannelHandlerContext frameContext = ctx.pipeline().context(Connections.FRAME_ENCODER);
+        if (frameContext != null) {
+          buffers.add(framedPackets.retainedDuplicate());
+          return frameContext;
+        }
+      }
+    }
+
+    List<ByteBuf> packets = preparedPacket.getPackets(this.protocolVersion);
+    if (packets != null) {
+      retainAll(packets, buffers);
+    } else if (preparedPacket.getCompressedPackets(this.protocolVersion) != null) {
+      // Only the compressed frames were saved, but the compression isn't enabled for this channel.
+      throw new IllegalStateException(
+          "The prepared packets for " + this.protocolVersion + " are stored only compressed, but the connection isn't compressed. "
+          + "Enable save-uncompressed-packets in the LimboAPI config if the compression is disabled for some players."
+      );
+    }
+
+    return ctx;
+  }
+
+  private static void retainAll(List<ByteBuf> packets, List<ByteBuf> buffers) {
+    for (ByteBuf packet : packets) {
+      buffers.add(packet.retainedDuplicate());
     }
   }
 }
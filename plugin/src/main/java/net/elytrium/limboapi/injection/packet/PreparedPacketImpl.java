@@ -22,27 +22,87 @@ import com.velocitypowered.proxy.protocol.MinecraftPacket;
 import com.velocitypowered.proxy.protocol.ProtocolUtils;
 import com.velocitypowered.proxy.protocol.ProtocolUtils.Direction;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.util.IllegalReferenceCountException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import net.elytrium.limboapi.LimboAPI;
+import net.elytrium.limboapi.Settings;
 import net.elytrium.limboapi.api.protocol.PreparedPacket;
 import net.elytrium.limboapi.protocol.LimboProtocol;
+import net.elytrium.limboapi.protocol.util.PooledDeflater;
 
 public class PreparedPacketImpl implements PreparedPacket {
 
+  // One direct arena without thread caches, as the prepared packets live until the Limbo is refreshed.
+  private static final ByteBufAllocator DIRECT_ALLOCATOR = new PooledByteBufAllocator(true, 0, 1, 8192, 11, 0, 0, false);
+
   private final Map<ProtocolVersion, List<ByteBuf>> packets = new ConcurrentHashMap<>();
+  private final Map<ProtocolVersion, List<ByteBuf>> compressedPackets = new ConcurrentHashMap<>();
+  // The built buffers are indexed by the version ordinal, so writing them doesn't need any lookups.
+  // Read by the event loops without the lock, so the frames are published through the atomic arrays.
+  private final AtomicReferenceArray<ByteBuf> compressedFrames = new AtomicReferenceArray<>(ProtocolVersion.values().length);
+  private final AtomicReferenceArray<ByteBuf> framedPackets = new AtomicReferenceArray<>(ProtocolVersion.values().length);
   private final ProtocolVersion minVersion;
   private final ProtocolVersion maxVersion;
+  private final int compressionThreshold;
+  private final int compressionLevel;
+  private final PreparedVersionTracker tracker;
+  // Versions that are prepared at once, the other versions are prepared when the first player with this version joins.
+  private final Set<ProtocolVersion> eagerVersions;
+  // Prepared packets and appended PreparedPacketImpls (or their parts), saved to prepare the other versions later.
+  private final List<Object> steps;
+  private final Set<ProtocolVersion> lazyVersions = EnumSet.noneOf(ProtocolVersion.class);
+  private final long[] lazySizes = new long[ProtocolVersion.values().length];
+  private final AtomicLongArray lastAccess = new AtomicLongArray(ProtocolVersion.values().length);
+  // Taken by the preparation and the eviction, the writers take it only to prepare a version that isn't prepared yet.
+  private final ReentrantLock lock = new ReentrantLock();
+  // The writers retain the buffers of the prepared lazy versions with the read lock, so these buffers are changed only with the write lock.
+  private final ReentrantReadWriteLock buffersLock = new ReentrantReadWriteLock();
+  // Lazy versions whose buffers are complete, guarded by the buffers lock.
+  private final boolean[] ready = new boolean[ProtocolVersion.values().length];
+  private final AtomicInteger references = new AtomicInteger(1);
+  private boolean built;
+
+  public PreparedPacketImpl(ProtocolVersion minVersion, ProtocolVersion maxVersion, int compressionThreshold, int compressionLevel,
+      PreparedVersionTracker tracker) {
+    this(minVersion, maxVersion, compressionThreshold, compressionLevel, tracker, Settings.IMP.MAIN.LAZY_PREPARATION);
+  }
 
-  public PreparedPacketImpl(ProtocolVersion minVersion, ProtocolVersion maxVersion) {
+  public PreparedPacketImpl(ProtocolVersion minVersion, ProtocolVersion maxVersion, int compressionThreshold, int compressionLevel,
+      PreparedVersionTracker tracker, boolean lazy) {
     this.minVersion = minVersion;
     this.maxVersion = maxVersion;
+    this.compressionThreshold = compressionThreshold;
+    this.compressionLevel = compressionLevel;
+    this.tracker = tracker;
+    if (lazy) {
+      this.eagerVersions = tracker.getWarmVersions();
+      this.steps = new ArrayList<>();
+      tracker.register(this);
+    } else {
+      this.eagerVersions = EnumSet.allOf(ProtocolVersion.class);
+      this.steps = null;
+    }
   }
 
   @Override
@@ -65,11 +125,7 @@ public class PreparedPacketImpl implements PreparedPacket {
       return this;
     }
 
-    for (T packet : packets) {
-      this.prepare((version) -> packet, ProtocolVersion.MINIMUM_VERSION, ProtocolVersion.MAXIMUM_VERSION);
-    }
-
-    return this;
+    return this.prepare(packets, ProtocolVersion.MINIMUM_VERSION, ProtocolVersion.MAXIMUM_VERSION);
   }
 
   @Override
@@ -102,15 +158,7 @@ public class PreparedPacketImpl implements PreparedPacket {
 
   @Override
   public <T> PreparedPacketImpl prepare(List<T> packets, ProtocolVersion from) {
-    if (packets == null) {
-      return this;
-    }
-
-    for (T packet : packets) {
-      this.prepare(packet, from);
-    }
-
-    return this;
+    return this.prepare(packets, from, ProtocolVersion.MAXIMUM_VERSION);
   }
 
   @Override
@@ -119,6 +167,11 @@ public class PreparedPacketImpl implements PreparedPacket {
       return this;
     }
 
+    Executor executor = LimboAPI.getPreparationExecutor();
+    if (executor != null && packets.size() > 1) {
+      return this.prepareConcurrently(packets, from, to, executor);
+    }
+
     for (T packet : packets) {
       this.prepare(packet, from, to);
     }
@@ -143,26 +196,652 @@ public class PreparedPacketImpl implements PreparedPacket {
     if (from.compareTo(to) > 0) {
       return this;
     }
-    for (ProtocolVersion protocolVersion : EnumSet.range(from, to)) {
-      ByteBuf buf = this.encodePacket(packet.apply(protocolVersion), protocolVersion);
-      if (this.packets.containsKey(protocolVersion)) {
-        this.packets.get(protocolVersion).add(buf);
-      } else {
-        List<ByteBuf> list = new ArrayList<>();
-        list.add(buf);
-        this.packets.put(protocolVersion, list);
+
+    long lazySize = 0;
+    this.lock.lock();
+    try {
+      this.checkNotBuilt();
+      if (this.steps != null) {
+        this.steps.add(new PreparationStep(packet, from, to));
+      }
+
+      for (ProtocolVersion protocolVersion : EnumSet.range(from, to)) {
+        if (this.eagerVersions.contains(protocolVersion)) {
+          this.encode(packet, protocolVersion);
+        } else if (this.lazyVersions.contains(protocolVersion)) {
+          long size = this.addPublished(protocolVersion, this.encodeVersion(packet.apply(protocolVersion), protocolVersion));
+          this.lazySizes[protocolVersion.ordinal()] += size;
+          lazySize += size;
+        }
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    this.onPrepared(lazySize);
+    return this;
+  }
+
+  // Encodes the different packets on the executor threads, and adds them in the original order.
+  private <T> PreparedPacketImpl prepareConcurrently(List<T> packets, ProtocolVersion originalFrom, ProtocolVersion originalTo, Executor executor) {
+    ProtocolVersion from = originalFrom.compareTo(this.minVersion) > 0 ? originalFrom : this.minVersion;
+    ProtocolVersion to = originalTo.compareTo(this.maxVersion) < 0 ? originalTo : this.maxVersion;
+    if (from.compareTo(to) > 0) {
+      return this;
+    }
+
+    long lazySize = 0;
+    this.lock.lock();
+    try {
+      this.checkNotBuilt();
+      List<ProtocolVersion> versions = new ArrayList<>();
+      for (ProtocolVersion version : EnumSet.range(from, to)) {
+        if (this.eagerVersions.contains(version) || this.lazyVersions.contains(version)) {
+          versions.add(version);
+        }
+      }
+
+      List<Object> steps = new ArrayList<>(packets.size());
+      List<CompletableFuture<EncodedPacket[]>> futures = new ArrayList<>(packets.size());
+      for (T packet : packets) {
+        if (packet == null) {
+          continue;
+        }
+
+        steps.add(new PreparationStep((version) -> packet, from, to));
+        futures.add(CompletableFuture.supplyAsync(() -> {
+          EncodedPacket[] encoded = new EncodedPacket[versions.size()];
+          try {
+            for (int i = 0; i < encoded.length; ++i) {
+              encoded[i] = this.encodeVersion(packet, versions.get(i));
+            }
+          } catch (RuntimeException e) {
+            releaseEncoded(encoded);
+            throw e;
+          }
+
+          return encoded;
+        }, executor));
+      }
+
+      // Every task is awaited before anything is added, so a failed call doesn't leave a part of the packets prepared.
+      List<EncodedPacket[]> results = new ArrayList<>(futures.size());
+      RuntimeException exception = null;
+      for (CompletableFuture<EncodedPacket[]> future : futures) {
+        try {
+          results.add(future.join());
+        } catch (CompletionException e) {
+          if (exception == null) {
+            exception = e;
+          }
+        }
+      }
+
+      if (exception != null) {
+        results.forEach(PreparedPacketImpl::releaseEncoded);
+        throw exception;
+      }
+
+      if (this.steps != null) {
+        this.steps.addAll(steps);
+      }
+
+      for (EncodedPacket[] encoded : results) {
+        for (int i = 0; i < encoded.length; ++i) {
+          ProtocolVersion version = versions.get(i);
+          if (this.lazyVersions.contains(version)) {
+            long size = this.addPublished(version, encoded[i]);
+            this.lazySizes[version.ordinal()] += size;
+            lazySize += size;
+          } else {
+            this.addEncoded(version, encoded[i]);
+          }
+        }
       }
+    } finally {
+      this.lock.unlock();
     }
 
+    this.onPrepared(lazySize);
     return this;
   }
 
+  private static void releaseEncoded(EncodedPacket[] encoded) {
+    for (EncodedPacket packet : encoded) {
+      if (packet != null) {
+        packet.release();
+      }
+    }
+  }
+
+  @Override
+  public PreparedPacketImpl append(PreparedPacket packet) {
+    return this.appendPart(new AppendStep((PreparedPacketImpl) packet, 0, 1));
+  }
+
+  /**
+   * Splits the packets of every version into the parts of the same size, keeping their order, e.g. to send a big world in batches.
+   * Doesn't prepare anything again, the parts share the buffers of this packet.
+   *
+   * @return The built parts, should be released by the caller.
+   */
+  public List<PreparedPacketImpl> split(int parts) {
+    this.lock.lock();
+    try {
+      // The built packet has only one frame per version, which can't be split.
+      this.checkNotBuilt();
+    } finally {
+      this.lock.unlock();
+    }
+
+    List<PreparedPacketImpl> result = new ArrayList<>(parts);
+    for (int part = 0; part < parts; ++part) {
+      PreparedPacketImpl preparedPacket = new PreparedPacketImpl(
+          this.minVersion, this.maxVersion, this.compressionThreshold, this.compressionLevel, this.tracker, this.steps != null
+      );
+      result.add(preparedPacket.appendPart(new AppendStep(this, part, parts)).build());
+    }
+
+    return result;
+  }
+
+  private PreparedPacketImpl appendPart(AppendStep step) {
+    long lazySize = 0;
+    this.lock.lock();
+    try {
+      this.checkNotBuilt();
+      if (this.steps != null) {
+        // The appended packet is needed until this packet is released, to prepare the other versions.
+        step.packet.retain();
+        this.steps.add(step);
+      }
+
+      for (ProtocolVersion version : EnumSet.range(this.minVersion, this.maxVersion)) {
+        if (this.eagerVersions.contains(version)) {
+          this.copyPackets(step, version, false);
+        } else if (this.lazyVersions.contains(version)) {
+          long size = this.copyPackets(step, version, true);
+          this.lazySizes[version.ordinal()] += size;
+          lazySize += size;
+        }
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    this.onPrepared(lazySize);
+    return this;
+  }
+
+  @Override
+  public PreparedPacketImpl build() {
+    this.lock.lock();
+    try {
+      this.checkNotBuilt();
+      this.built = true;
+      Lock writeLock = this.buffersLock.writeLock();
+      writeLock.lock();
+      try {
+        for (ProtocolVersion version : EnumSet.range(this.minVersion, this.maxVersion)) {
+          if (this.eagerVersions.contains(version) || this.lazyVersions.contains(version)) {
+            this.buildVersion(version);
+          }
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    return this;
+  }
+
+  // Keeps the packet alive until the matching release call, even if the owner releases it earlier.
+  public PreparedPacketImpl retain() {
+    if (!this.tryRetain()) {
+      // The packet is already released, so its buffers can't be used anymore.
+      throw new IllegalReferenceCountException(0, 1);
+    }
+
+    return this;
+  }
+
+  // Fails if the packet is already released, e.g. when it's replaced concurrently.
+  public boolean tryRetain() {
+    int references;
+    do {
+      references = this.references.get();
+      if (references == 0) {
+        return false;
+      }
+    } while (!this.references.compareAndSet(references, references + 1));
+
+    return true;
+  }
+
+  @Override
+  public void release() {
+    if (this.references.decrementAndGet() != 0) {
+      return;
+    }
+
+    this.lock.lock();
+    try {
+      Lock writeLock = this.buffersLock.writeLock();
+      writeLock.lock();
+      try {
+        Arrays.fill(this.ready, false);
+        for (ProtocolVersion version : ProtocolVersion.values()) {
+          this.releaseVersion(version);
+        }
+      } finally {
+        writeLock.unlock();
+      }
+
+      if (this.steps != null) {
+        for (Object step : this.steps) {
+          if (step instanceof AppendStep) {
+            ((AppendStep) step).packet.release();
+          }
+        }
+        this.steps.clear();
+
+        long lazySize = 0;
+        for (ProtocolVersion version : this.lazyVersions) {
+          lazySize += this.lazySizes[version.ordinal()];
+        }
+        this.lazyVersions.clear();
+        this.tracker.unregister(this, lazySize);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public boolean isLazy(ProtocolVersion version) {
+    return !this.eagerVersions.contains(version);
+  }
+
+  // Says that the version isn't prepared while it's being prepared right now, without waiting for it.
+  public boolean isPrepared(ProtocolVersion version) {
+    if (!this.isLazy(version)) {
+      return true;
+    }
+
+    Lock readLock = this.buffersLock.readLock();
+    readLock.lock();
+    try {
+      return this.ready[version.ordinal()];
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  // Prepares the version on the calling thread, should be called off the event loop, so the other players don't wait for it.
+  public void warmVersion(ProtocolVersion version) {
+    long size = 0;
+    this.lock.lock();
+    try {
+      if (this.references.get() == 0) {
+        throw new IllegalReferenceCountException(0);
+      }
+
+      this.lastAccess.set(version.ordinal(), System.nanoTime());
+      if (this.steps != null && !this.lazyVersions.contains(version)) {
+        // Nobody reads the buffers of this version until it's marked as ready, so they are prepared without the write lock.
+        size = this.prepareVersion(version);
+        this.lazyVersions.add(version);
+        this.lazySizes[version.ordinal()] = size;
+        this.markReady(version);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    this.onPrepared(size);
+  }
+
+  /**
+   * Prepares the version if needed, and calls the action with the read lock, so the version can't be evicted until the action retains its buffers.
+   * The writers of the other versions aren't blocked by the preparation.
+   */
+  public <T> T pinVersion(ProtocolVersion version, Supplier<T> action) {
+    if (!this.isLazy(version)) {
+      return action.get();
+    }
+
+    Lock readLock = this.buffersLock.readLock();
+    while (true) {
+      readLock.lock();
+      try {
+        if (this.ready[version.ordinal()]) {
+          this.lastAccess.set(version.ordinal(), System.nanoTime());
+          return action.get();
+        }
+      } finally {
+        readLock.unlock();
+      }
+
+      // The version may be evicted again before the read lock is taken, then it's prepared once more.
+      this.warmVersion(version);
+    }
+  }
+
+  long tryEvict(ProtocolVersion version, long now, long minIdleTime) {
+    // The thread that prepares this packet right now may evict the other packets, but not this one, as its sizes aren't counted yet.
+    if (this.lock.isHeldByCurrentThread() || !this.lock.tryLock()) {
+      return 0;
+    }
+
+    try {
+      if (!this.lazyVersions.contains(version) || now - this.lastAccess.get(version.ordinal()) < minIdleTime) {
+        return 0;
+      }
+
+      Lock writeLock = this.buffersLock.writeLock();
+      writeLock.lock();
+      try {
+        this.ready[version.ordinal()] = false;
+        this.releaseVersion(version);
+      } finally {
+        writeLock.unlock();
+      }
+
+      this.lazyVersions.remove(version);
+      long size = this.lazySizes[version.ordinal()];
+      this.lazySizes[version.ordinal()] = 0;
+      return size;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
   public List<ByteBuf> getPackets(ProtocolVersion version) {
     return this.packets.get(version);
   }
 
-  public boolean hasPacketsFor(ProtocolVersion version) {
-    return this.packets.containsKey(version);
+  // These frames are already compressed and prefixed with the length, so they should be written past the Velocity compression encoder.
+  public List<ByteBuf> getCompressedPackets(ProtocolVersion version) {
+    return this.compressedPackets.get(version);
+  }
+
+  // All the compressed frames of the version joined into one buffer, available after the packet is built.
+  public ByteBuf getCompressedFrame(ProtocolVersion version) {
+    return this.compressedFrames.get(version.ordinal());
+  }
+
+  // Contains all the packets of the version, prefixed with the length, so it should be written past the Velocity frame encoder.
+  public ByteBuf getFramedPackets(ProtocolVersion version) {
+    return this.framedPackets.get(version.ordinal());
+  }
+
+  // Everything besides the packets themselves that changes the prepared buffers.
+  String getPreparationKey() {
+    return this.minVersion.getProtocol() + ":" + this.maxVersion.getProtocol() + ":" + this.compressionThreshold + ":" + this.compressionLevel
+        + ":" + Settings.IMP.MAIN.MIN_COMPRESSED_PACKET_SIZE + ":" + Settings.IMP.MAIN.SAVE_UNCOMPRESSED_PACKETS
+        + ":" + Settings.IMP.MAIN.LEGACY_CHUNK_COMPRESSION_LEVEL;
+  }
+
+  ProtocolVersion getMinVersion() {
+    return this.minVersion;
+  }
+
+  ProtocolVersion getMaxVersion() {
+    return this.maxVersion;
+  }
+
+  // Adds the already prepared buffers, for example loaded from the cache.
+  void putPackets(ProtocolVersion version, List<ByteBuf> packets, List<ByteBuf> compressedPackets) {
+    this.lock.lock();
+    try {
+      this.checkNotBuilt();
+      Lock writeLock = this.buffersLock.writeLock();
+      writeLock.lock();
+      try {
+        packets.forEach(buf -> this.addPacket(this.packets, version, buf));
+        compressedPackets.forEach(buf -> this.addPacket(this.compressedPackets, version, buf));
+      } finally {
+        writeLock.unlock();
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private long prepareVersion(ProtocolVersion version) {
+    long size = 0;
+    for (Object step : this.steps) {
+      if (step instanceof AppendStep) {
+        // The copies are counted against this packet too, as they keep the buffers alive even if the appended packet evicts the version.
+        size += this.copyPackets((AppendStep) step, version, false);
+      } else {
+        PreparationStep preparationStep = (PreparationStep) step;
+        if (version.compareTo(preparationStep.from) >= 0 && version.compareTo(preparationStep.to) <= 0) {
+          size += this.encode(preparationStep.packet, version);
+        }
+      }
+    }
+
+    if (this.built) {
+      this.buildVersion(version);
+    }
+
+    return size;
+  }
+
+  private <T> long encode(Function<ProtocolVersion, T> packet, ProtocolVersion version) {
+    return this.addEncoded(version, this.encodeVersion(packet.apply(version), version));
+  }
+
+  private <T> EncodedPacket encodeVersion(T packet, ProtocolVersion version) {
+    ByteBuf buf = this.encodePacket(packet, version);
+    // Velocity doesn't enable the compression for 1.7.x clients.
+    if (this.compressionThreshold != -1 && version.compareTo(ProtocolVersion.MINECRAFT_1_8) >= 0) {
+      ByteBuf compressed = this.store(this.compressPacket(buf));
+      if (!Settings.IMP.MAIN.SAVE_UNCOMPRESSED_PACKETS) {
+        buf.release();
+        return new EncodedPacket(null, compressed);
+      }
+
+      return new EncodedPacket(this.store(buf), compressed);
+    }
+
+    return new EncodedPacket(this.store(buf), null);
+  }
+
+  // The prepared lazy versions can be written by the event loops right now, so their buffers are changed only with the write lock.
+  private long addPublished(ProtocolVersion version, EncodedPacket encoded) {
+    Lock writeLock = this.buffersLock.writeLock();
+    writeLock.lock();
+    try {
+      return this.addEncoded(version, encoded);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private long addEncoded(ProtocolVersion version, EncodedPacket encoded) {
+    long size = 0;
+    if (encoded.compressed != null) {
+      size += encoded.compressed.readableBytes();
+      this.addPacket(this.compressedPackets, version, encoded.compressed);
+    }
+
+    if (encoded.packet != null) {
+      size += encoded.packet.readableBytes();
+      this.addPacket(this.packets, version, encoded.packet);
+    }
+
+    return size;
+  }
+
+  private long copyPackets(AppendStep step, ProtocolVersion version, boolean published) {
+    // The appended packet can't evict the version until the copies are retained.
+    return step.packet.pinVersion(version, () -> {
+      List<ByteBuf> packets = step.getPart(step.packet.packets.get(version));
+      List<ByteBuf> compressedPackets = step.getPart(step.packet.compressedPackets.get(version));
+      if (!published) {
+        return this.appendPackets(this.packets, version, packets) + this.appendPackets(this.compressedPackets, version, compressedPackets);
+      }
+
+      Lock writeLock = this.buffersLock.writeLock();
+      writeLock.lock();
+      try {
+        return this.appendPackets(this.packets, version, packets) + this.appendPackets(this.compressedPackets, version, compressedPackets);
+      } finally {
+        writeLock.unlock();
+      }
+    });
+  }
+
+  private void markReady(ProtocolVersion version) {
+    Lock writeLock = this.buffersLock.writeLock();
+    writeLock.lock();
+    try {
+      this.ready[version.ordinal()] = true;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void onPrepared(long size) {
+    if (size != 0) {
+      this.tracker.onPrepared(size);
+    }
+  }
+
+  private void buildVersion(ProtocolVersion version) {
+    List<ByteBuf> frames = this.compressedPackets.get(version);
+    if (frames != null) {
+      ByteBuf frame = this.joinFrames(frames);
+      this.compressedPackets.put(version, List.of(frame));
+      this.compressedFrames.set(version.ordinal(), frame);
+    }
+
+    List<ByteBuf> packets = this.packets.get(version);
+    if (packets != null) {
+      this.framedPackets.set(version.ordinal(), this.framePackets(packets));
+    }
+  }
+
+  private void releaseVersion(ProtocolVersion version) {
+    List<ByteBuf> packets = this.packets.remove(version);
+    if (packets != null) {
+      packets.forEach(ByteBuf::release);
+    }
+
+    List<ByteBuf> compressedPackets = this.compressedPackets.remove(version);
+    if (compressedPackets != null) {
+      compressedPackets.forEach(ByteBuf::release);
+    }
+
+    this.compressedFrames.set(version.ordinal(), null);
+    ByteBuf framedPackets = this.framedPackets.getAndSet(version.ordinal(), null);
+    if (framedPackets != null) {
+      framedPackets.release();
+    }
+  }
+
+  private void checkNotBuilt() {
+    if (this.built) {
+      throw new IllegalStateException("The packet is already built.");
+    }
+  }
+
+  private long appendPackets(Map<ProtocolVersion, List<ByteBuf>> packets, ProtocolVersion version, List<ByteBuf> toAppend) {
+    long size = 0;
+    if (toAppend != null) {
+      for (ByteBuf buf : toAppend) {
+        size += buf.readableBytes();
+        this.addPacket(packets, version, buf.retainedDuplicate());
+      }
+    }
+
+    return size;
+  }
+
+  private ByteBuf joinFrames(List<ByteBuf> frames) {
+    CompositeByteBuf bundle = this.createBundle(frames.size());
+    // The bundle takes over the frames, as they aren't stored separately anymore.
+    for (ByteBuf frame : frames) {
+      bundle.addComponent(true, frame);
+    }
+
+    return bundle;
+  }
+
+  private ByteBuf framePackets(List<ByteBuf> packets) {
+    CompositeByteBuf bundle = this.createBundle(packets.size() * 2);
+    for (ByteBuf packet : packets) {
+      int lengthSize = ProtocolUtils.varIntBytes(packet.readableBytes());
+      ByteBuf length = Settings.IMP.MAIN.DIRECT_MEMORY_PREPARED_PACKETS
+          ? DIRECT_ALLOCATOR.directBuffer(lengthSize, lengthSize)
+          : Unpooled.buffer(lengthSize);
+      ProtocolUtils.writeVarInt(length, packet.readableBytes());
+      bundle.addComponents(true, length, packet.retainedDuplicate());
+    }
+
+    return bundle;
+  }
+
+  private CompositeByteBuf createBundle(int components) {
+    if (Settings.IMP.MAIN.DIRECT_MEMORY_PREPARED_PACKETS) {
+      return DIRECT_ALLOCATOR.compositeDirectBuffer(components);
+    } else {
+      return Unpooled.compositeBuffer(components);
+    }
+  }
+
+  private ByteBuf store(ByteBuf buf) {
+    if (!Settings.IMP.MAIN.DIRECT_MEMORY_PREPARED_PACKETS) {
+      return PreparedBufferPool.intern(buf);
+    }
+
+    try {
+      int size = buf.readableBytes();
+      return PreparedBufferPool.intern(DIRECT_ALLOCATOR.directBuffer(size, size).writeBytes(buf, buf.readerIndex(), size));
+    } finally {
+      buf.release();
+    }
+  }
+
+  private void addPacket(Map<ProtocolVersion, List<ByteBuf>> packets, ProtocolVersion version, ByteBuf buf) {
+    List<ByteBuf> list = packets.get(version);
+    if (list == null) {
+      list = new ArrayList<>();
+      packets.put(version, list);
+    }
+
+    list.add(buf);
+  }
+
+  private ByteBuf compressPacket(ByteBuf packet) {
+    int uncompressedSize = packet.readableBytes();
+    if (uncompressedSize >= this.compressionThreshold && uncompressedSize >= Settings.IMP.MAIN.MIN_COMPRESSED_PACKET_SIZE) {
+      ByteBuf compressed = PooledDeflater.deflate(packet, this.compressionLevel);
+      try {
+        int compressedSize = compressed.readableBytes();
+        // The client accepts uncompressed frames of any size, so there is no point in sending a frame that hasn't become smaller.
+        if (compressedSize < uncompressedSize) {
+          int dataLength = ProtocolUtils.varIntBytes(uncompressedSize) + compressedSize;
+          ByteBuf frame = Unpooled.buffer(ProtocolUtils.varIntBytes(dataLength) + dataLength);
+          ProtocolUtils.writeVarInt(frame, dataLength);
+          ProtocolUtils.writeVarInt(frame, uncompressedSize);
+          frame.writeBytes(compressed);
+          return frame;
+        }
+      } finally {
+        compressed.release();
+      }
+    }
+
+    // Data length = 0 means that the frame isn't compressed.
+    ByteBuf frame = Unpooled.buffer(ProtocolUtils.varIntBytes(uncompressedSize + 1) + uncompressedSize + 1);
+    ProtocolUtils.writeVarInt(frame, uncompressedSize + 1);
+    ProtocolUtils.writeVarInt(frame, 0);
+    frame.writeBytes(packet, packet.readerIndex(), uncompressedSize);
+    return frame;
   }
 
   private <T> ByteBuf encodePacket(T packet, ProtocolVersion version) {
@@ -186,5 +865,59 @@ public class PreparedPacketImpl implements PreparedPacket {
       );
     }
   }
-}
 
+  private static class EncodedPacket {
+
+    private final ByteBuf packet;
+    private final ByteBuf compressed;
+
+    private EncodedPacket(ByteBuf packet, ByteBuf compressed) {
+      this.packet = packet;
+      this.compressed = compressed;
+    }
+
+    private void release() {
+      if (this.packet != null) {
+        this.packet.release();
+      }
+
+      if (this.compressed != null) {
+        this.compressed.release();
+      }
+    }
+  }
+
+  private static class AppendStep {
+
+    private final PreparedPacketImpl packet;
+    private final int part;
+    private final int parts;
+
+    private AppendStep(PreparedPacketImpl packet, int part, int parts) {
+      this.packet = packet;
+      this.part = part;
+      this.parts = parts;
+    }
+
+    private List<ByteBuf> getPart(List<ByteBuf> packets) {
+      if (packets == null || this.parts == 1) {
+        return packets;
+      }
+
+      return packets.subList(packets.size() * this.part / this.parts, packets.size() * (this.part + 1) / this.parts);
+    }
+  }
+
+  private static class PreparationStep {
+
+    private final Function<ProtocolVersion, ?> packet;
+    private final ProtocolVersion from;
+    private final ProtocolVersion to;
+
+    private PreparationStep(Function<ProtocolVersion, ?> packet, ProtocolVersion from, ProtocolVersion to) {
+      this.packet = packet;
+      this.from = from;
+      this.to = to;
+    }
+  }
+}
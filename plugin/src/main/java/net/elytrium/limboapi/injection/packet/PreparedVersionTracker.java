@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboapi.injection.packet;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import net.elytrium.limboapi.Settings;
+
+public class PreparedVersionTracker {
+
+  // The adaptive warm set isn't used until enough players have joined.
+  private static final long MIN_JOINS = 100;
+  // Versions that were used recently aren't released, even if the memory budget is exceeded.
+  private static final long MIN_IDLE_TIME = TimeUnit.MINUTES.toNanos(1);
+
+  private final AtomicLongArray joins = new AtomicLongArray(ProtocolVersion.values().length);
+  private final AtomicLong totalJoins = new AtomicLong();
+  private final Set<PreparedPacketImpl> packets = Collections.newSetFromMap(new WeakHashMap<>());
+  private Set<ProtocolVersion> warmVersions = EnumSet.noneOf(ProtocolVersion.class);
+  private long usedMemory;
+
+  public void reload(Set<ProtocolVersion> warmVersions) {
+    this.warmVersions = warmVersions;
+  }
+
+  public void onJoin(ProtocolVersion version) {
+    this.joins.incrementAndGet(version.ordinal());
+    this.totalJoins.incrementAndGet();
+  }
+
+  public boolean isWarm(ProtocolVersion version) {
+    if (this.warmVersions.contains(version)) {
+      return true;
+    }
+
+    int percent = Settings.IMP.MAIN.ADAPTIVE_WARM_VERSIONS_PERCENT;
+    long total = this.totalJoins.get();
+    return percent > 0 && total >= MIN_JOINS && this.joins.get(version.ordinal()) * 100 >= total * percent;
+  }
+
+  public Set<ProtocolVersion> getWarmVersions() {
+    Set<ProtocolVersion> warmVersions = EnumSet.noneOf(ProtocolVersion.class);
+    for (ProtocolVersion version : ProtocolVersion.values()) {
+      if (this.isWarm(version)) {
+        warmVersions.add(version);
+      }
+    }
+
+    return warmVersions;
+  }
+
+  synchronized void register(PreparedPacketImpl packet) {
+    this.packets.add(packet);
+  }
+
+  synchronized void unregister(PreparedPacketImpl packet, long size) {
+    this.packets.remove(packet);
+    this.usedMemory -= size;
+  }
+
+  synchronized void onPrepared(long size) {
+    this.usedMemory += size;
+    long budget = Settings.IMP.MAIN.LAZY_PREPARATION_MEMORY_BUDGET * 1024L * 1024L;
+    if (this.usedMemory > budget) {
+      this.evict(budget);
+    }
+  }
+
+  public synchronized long getUsedMemory() {
+    return this.usedMemory;
+  }
+
+  private void evict(long budget) {
+    List<ProtocolVersion> versions = new ArrayList<>();
+    for (ProtocolVersion version : ProtocolVersion.values()) {
+      if (!this.isWarm(version)) {
+        versions.add(version);
+      }
+    }
+
+    versions.sort(Comparator.comparingLong(version -> this.joins.get(version.ordinal())));
+    long now = System.nanoTime();
+    // The packets only try to lock themselves here, so the eviction never waits for the players who are joining right now.
+    for (ProtocolVersion version : versions) {
+      for (PreparedPacketImpl packet : new ArrayList<>(this.packets)) {
+        this.usedMemory -= packet.tryEvict(version, now, MIN_IDLE_TIME);
+        if (this.usedMemory <= budget) {
+          PreparedBufferPool.purge();
+          return;
+        }
+      }
+    }
+
+    PreparedBufferPool.purge();
+  }
+}
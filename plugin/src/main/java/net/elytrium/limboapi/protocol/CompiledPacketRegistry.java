@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboapi.protocol;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.proxy.protocol.MinecraftPacket;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Dense packet ID tables of one direction, indexed by the protocol version ordinal.
+// The decoding uses the flattened Velocity maps, so only the encoding side is compiled here.
+public class CompiledPacketRegistry {
+
+  private static final int VERSIONS = ProtocolVersion.values().length;
+
+  private final Map<Class<?>, int[]> packetIds = new HashMap<>();
+
+  void add(ProtocolVersion version, Object2IntMap<Class<? extends MinecraftPacket>> classToId) {
+    for (Object2IntMap.Entry<Class<? extends MinecraftPacket>> entry : classToId.object2IntEntrySet()) {
+      this.packetIds.computeIfAbsent(entry.getKey(), key -> {
+        int[] ids = new int[VERSIONS];
+        Arrays.fill(ids, Integer.MIN_VALUE);
+        return ids;
+      })[version.ordinal()] = entry.getIntValue();
+    }
+  }
+
+  public int getPacketId(Class<?> packetClass, ProtocolVersion version) {
+    int[] ids = this.packetIds.get(packetClass);
+    return ids == null ? Integer.MIN_VALUE : ids[version.ordinal()];
+  }
+}
@@ -48,6 +48,7 @@ import net.elytrium.limboapi.protocol.packet.SetSlot;
 import net.elytrium.limboapi.protocol.packet.TeleportConfirm;
 import net.elytrium.limboapi.protocol.packet.UpdateViewPosition;
 import net.elytrium.limboapi.protocol.packet.world.ChunkData;
+import net.elytrium.limboapi.protocol.packet.world.MapChunkBulk;
 import net.elytrium.limboapi.utils.OverlayIntObjectMap;
 import net.elytrium.limboapi.utils.OverlayObject2IntMap;
 import sun.misc.Unsafe;
@@ -57,6 +58,7 @@ public class LimboProtocol {
 
   public static final String PREPARED_ENCODER = "prepared-encoder";
   public static final String READ_TIMEOUT = "limboapi-read-timeout";
+  public static final String CHUNK_STREAMER = "limboapi-chunk-streamer";
 
   private static final Unsafe unsafe;
   private static final StateRegistry limboRegistry;
@@ -70,6 +72,9 @@ public class LimboProtocol {
   private static final Method register;
   private static final Constructor<StateRegistry.PacketMapping> ctor;
 
+  private static volatile CompiledPacketRegistry compiledClientbound;
+  private static volatile CompiledPacketRegistry compiledServerbound;
+
   static {
     try {
       Field unsafeField = Unsafe.class.getDeclaredField("theUnsafe");
@@ -180,6 +185,11 @@ public class LimboProtocol {
             map(0x20, ProtocolVersion.MINECRAFT_1_16_2, true),
             map(0x22, ProtocolVersion.MINECRAFT_1_17, true)
         });
+    register(PacketDirection.CLIENTBOUND,
+        MapChunkBulk.class, MapChunkBulk::new,
+        new StateRegistry.PacketMapping[] {
+            map(0x26, ProtocolVersion.MINECRAFT_1_7_2, ProtocolVersion.MINECRAFT_1_8, true)
+        });
     register(PacketDirection.CLIENTBOUND,
         SetSlot.class, SetSlot::new,
         new StateRegistry.PacketMapping[] {
@@ -261,6 +271,8 @@ public class LimboProtocol {
             map(0x42, ProtocolVersion.MINECRAFT_1_16, true),
             map(0x4B, ProtocolVersion.MINECRAFT_1_17, true)
         });
+
+    compile();
   }
 
   public static void register(PacketDirection direction, Class<?> packetClass, Supplier<?> packetSupplier, StateRegistry.PacketMapping[] packetMappings) {
@@ -284,6 +296,58 @@ public class LimboProtocol {
     } catch (IllegalAccessException | InvocationTargetException e) {
       e.printStackTrace();
     }
+
+    // The tables are built at the end of init(), so the built-in packets don't rebuild them one by one.
+    if (compiledClientbound != null) {
+      compile();
+    }
+  }
+
+  // Flattens the overlay maps of the Limbo registry and builds the dense packet ID tables.
+  public static synchronized void compile() {
+    compiledClientbound = compile(limboRegistry.clientbound);
+    compiledServerbound = compile(limboRegistry.serverbound);
+  }
+
+  private static CompiledPacketRegistry compile(StateRegistry.PacketRegistry registry) {
+    CompiledPacketRegistry compiled = new CompiledPacketRegistry();
+    try {
+      Map<ProtocolVersion, StateRegistry.PacketRegistry.ProtocolRegistry> registryVersions =
+          (Map<ProtocolVersion, StateRegistry.PacketRegistry.ProtocolRegistry>) versions.get(registry);
+      for (StateRegistry.PacketRegistry.ProtocolRegistry protocolRegistry : registryVersions.values()) {
+        IntObjectMap<Supplier<? extends MinecraftPacket>> idToSupplier =
+            (IntObjectMap<Supplier<? extends MinecraftPacket>>) packetIdToSupplier.get(protocolRegistry);
+        Object2IntMap<Class<? extends MinecraftPacket>> classToId =
+            (Object2IntMap<Class<? extends MinecraftPacket>>) packetClassToId.get(protocolRegistry);
+
+        // The overlay maps box the keys and check both maps, the flattened copies are used by the Velocity encoder and decoder instead.
+        if (idToSupplier instanceof OverlayIntObjectMap) {
+          IntObjectMap<Supplier<? extends MinecraftPacket>> flatIdToSupplier = new IntObjectHashMap<>(idToSupplier.size() * 2, 0.5F);
+          for (Integer id : idToSupplier.keySet()) {
+            flatIdToSupplier.put(id, idToSupplier.get(id));
+          }
+
+          packetIdToSupplier.set(protocolRegistry, flatIdToSupplier);
+        }
+
+        if (classToId instanceof OverlayObject2IntMap) {
+          Object2IntMap<Class<? extends MinecraftPacket>> flatClassToId = new Object2IntOpenHashMap<>(classToId.size() * 2, 0.5F);
+          flatClassToId.defaultReturnValue(classToId.defaultReturnValue());
+          for (Class<? extends MinecraftPacket> packetClass : classToId.keySet()) {
+            flatClassToId.put(packetClass, classToId.getInt(packetClass));
+          }
+
+          packetClassToId.set(protocolRegistry, flatClassToId);
+          classToId = flatClassToId;
+        }
+
+        compiled.add((ProtocolVersion) version.get(protocolRegistry), classToId);
+      }
+    } catch (IllegalAccessException e) {
+      throw new ReflectionException(e);
+    }
+
+    return compiled;
   }
 
   public static void register(PacketDirection direction, Class<?> packetClass, Supplier<?> packetSupplier, PacketMapping[] packetMappings) {
@@ -344,6 +408,12 @@ public class LimboProtocol {
   }
 
   public static int getPacketId(StateRegistry.PacketRegistry packetRegistry, Class<? extends MinecraftPacket> packet, ProtocolVersion version) {
+    if (packetRegistry == limboRegistry.clientbound && compiledClientbound != null) {
+      return compiledClientbound.getPacketId(packet, version);
+    } else if (packetRegistry == limboRegistry.serverbound && compiledServerbound != null) {
+      return compiledServerbound.getPacketId(packet, version);
+    }
+
     StateRegistry.PacketRegistry.ProtocolRegistry protocolRegistry = null;
     try {
       protocolRegistry = (StateRegistry.PacketRegistry.ProtocolRegistry) getProtocolRegistry.invoke(packetRegistry, version);
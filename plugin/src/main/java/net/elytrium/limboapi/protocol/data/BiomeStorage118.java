@@ -20,10 +20,10 @@ package net.elytrium.limboapi.protocol.data;
 import com.velocitypowered.api.network.ProtocolVersion;
 import com.velocitypowered.proxy.protocol.ProtocolUtils;
 import io.netty.buffer.ByteBuf;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import net.elytrium.limboapi.api.chunk.VirtualBiome;
 import net.elytrium.limboapi.api.chunk.util.CompactStorage;
 import net.elytrium.limboapi.material.Biome;
@@ -35,21 +35,27 @@ public class BiomeStorage118 {
 
   private final ProtocolVersion version;
   private List<VirtualBiome> palette = new ArrayList<>();
-  private Map<Integer, VirtualBiome> rawToBiome = new HashMap<>();
+  // Biome id to palette index.
+  private Int2IntOpenHashMap paletteIndices;
+  private Int2ObjectOpenHashMap<VirtualBiome> rawToBiome = new Int2ObjectOpenHashMap<>();
   private CompactStorage storage;
 
   public BiomeStorage118(ProtocolVersion version) {
+    this(version, Biome.PLAINS);
+  }
+
+  public BiomeStorage118(ProtocolVersion version, @NonNull VirtualBiome biome) {
     this.version = version;
-    for (Biome biome : Biome.values()) {
-      this.palette.add(biome);
-      this.rawToBiome.put(biome.getId(), biome);
-    }
-    this.storage = new BitStorage116(3, SimpleChunk.MAX_BIOMES_PER_SECTION);
+    this.palette.add(biome);
+    this.indexPalette();
+    this.rawToBiome.put(biome.getId(), biome);
+    this.storage = new SingleValueStorage(SimpleChunk.MAX_BIOMES_PER_SECTION);
   }
 
-  private BiomeStorage118(ProtocolVersion version, List<VirtualBiome> palette, Map<Integer, VirtualBiome> rawToBiome, CompactStorage storage) {
+  private BiomeStorage118(ProtocolVersion version, List<VirtualBiome> palette, Int2ObjectOpenHashMap<VirtualBiome> rawToBiome, CompactStorage storage) {
     this.version = version;
     this.palette = palette;
+    this.indexPalette();
     this.rawToBiome = rawToBiome;
     this.storage = storage;
   }
@@ -81,7 +87,9 @@ public class BiomeStorage118 {
 
   public void write(ByteBuf buf, ProtocolVersion version) {
     buf.writeByte(this.storage.getBitsPerEntry());
-    if (this.storage.getBitsPerEntry() <= 8) {
+    if (this.storage.getBitsPerEntry() == 0) {
+      ProtocolUtils.writeVarInt(buf, this.palette.get(0).getId());
+    } else if (this.storage.getBitsPerEntry() <= 8) {
       ProtocolUtils.writeVarInt(buf, this.palette.size());
       for (VirtualBiome biome : this.palette) {
         ProtocolUtils.writeVarInt(buf, biome.getId());
@@ -93,7 +101,9 @@ public class BiomeStorage118 {
 
   public int getDataLength() {
     int length = 1;
-    if (this.storage.getBitsPerEntry() <= 8) {
+    if (this.storage.getBitsPerEntry() == 0) {
+      length += ProtocolUtils.varIntBytes(this.palette.get(0).getId());
+    } else if (this.storage.getBitsPerEntry() <= 8) {
       length += ProtocolUtils.varIntBytes(this.palette.size());
       for (VirtualBiome biome : this.palette) {
         length += ProtocolUtils.varIntBytes(biome.getId());
@@ -103,8 +113,53 @@ public class BiomeStorage118 {
     return length + this.storage.getDataLength();
   }
 
+  /**
+   * Drops unused palette entries, uses 1 to 3 bits per entry for small palettes
+   * and the single value palette if every entry has the same biome.
+   */
+  public void compact() {
+    if (this.storage.getBitsPerEntry() == 0) {
+      return;
+    }
+
+    Int2IntOpenHashMap indices = new Int2IntOpenHashMap();
+    indices.defaultReturnValue(-1);
+    List<VirtualBiome> palette = new ArrayList<>();
+    int[] values = new int[SimpleChunk.MAX_BIOMES_PER_SECTION];
+    for (int i = 0; i < SimpleChunk.MAX_BIOMES_PER_SECTION; ++i) {
+      int value = this.storage.get(i);
+      int index = indices.get(value);
+      if (index == -1) {
+        index = palette.size();
+        indices.put(value, index);
+        palette.add(this.get(i));
+      }
+      values[i] = index;
+    }
+
+    if (palette.size() == 1) {
+      this.palette = palette;
+      this.indexPalette();
+      this.storage = new SingleValueStorage(SimpleChunk.MAX_BIOMES_PER_SECTION);
+      return;
+    }
+
+    int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(palette.size() - 1));
+    if (bits > 3) {
+      return;
+    }
+
+    CompactStorage newStorage = new BitStorage116(bits, SimpleChunk.MAX_BIOMES_PER_SECTION);
+    for (int i = 0; i < SimpleChunk.MAX_BIOMES_PER_SECTION; ++i) {
+      newStorage.set(i, values[i]);
+    }
+    this.palette = palette;
+    this.indexPalette();
+    this.storage = newStorage;
+  }
+
   public BiomeStorage118 copy() {
-    return new BiomeStorage118(this.version, new ArrayList<>(this.palette), new HashMap<>(this.rawToBiome), this.storage.copy());
+    return new BiomeStorage118(this.version, new ArrayList<>(this.palette), new Int2ObjectOpenHashMap<>(this.rawToBiome), this.storage.copy());
   }
 
   private int getIndex(VirtualBiome biome) {
@@ -113,20 +168,30 @@ public class BiomeStorage118 {
       this.rawToBiome.put(raw, biome);
       return raw;
     }
-    int id = this.palette.indexOf(biome);
+    int id = this.paletteIndices.get(biome.getId());
     if (id == -1) {
       if (this.palette.size() >= (1 << this.storage.getBitsPerEntry())) {
         this.resize(this.storage.getBitsPerEntry() + 1);
         return this.getIndex(biome);
       }
+      id = this.palette.size();
       this.palette.add(biome);
-      id = this.palette.size() - 1;
+      this.paletteIndices.put(biome.getId(), id);
     }
     return id;
   }
 
+  private void indexPalette() {
+    this.paletteIndices = new Int2IntOpenHashMap(this.palette.size());
+    this.paletteIndices.defaultReturnValue(-1);
+    for (int i = this.palette.size() - 1; i >= 0; --i) {
+      this.paletteIndices.put(this.palette.get(i).getId(), i);
+    }
+  }
+
   private void resize(int newSize) {
-    newSize = StorageUtils19.fixBitsPerEntry(this.version, newSize);
+    // 1.18 biome palettes use 1 to 3 bits per entry.
+    newSize = newSize <= 3 ? Math.max(1, newSize) : StorageUtils19.fixBitsPerEntry(this.version, newSize);
     CompactStorage newStorage = new BitStorage116(newSize, SimpleChunk.MAX_BIOMES_PER_SECTION);
 
     for (int i = 0; i < SimpleChunk.MAX_BIOMES_PER_SECTION; ++i) {
@@ -20,10 +20,12 @@ package net.elytrium.limboapi.protocol.data;
 import com.velocitypowered.api.network.ProtocolVersion;
 import com.velocitypowered.proxy.protocol.ProtocolUtils;
 import io.netty.buffer.ByteBuf;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import net.elytrium.limboapi.api.chunk.VirtualBlock;
 import net.elytrium.limboapi.api.chunk.data.BlockStorage;
 import net.elytrium.limboapi.api.chunk.util.CompactStorage;
@@ -37,27 +39,38 @@ public class BlockStorage19 implements BlockStorage {
 
   private final ProtocolVersion version;
   private List<VirtualBlock> palette = new ArrayList<>();
-  private Map<Short, VirtualBlock> rawToBlock = new HashMap<>();
+  // Palette key to palette index, the blocks that differ only by the heightmap flags get their own entries.
+  private Int2IntOpenHashMap paletteIndices;
+  private Int2ObjectOpenHashMap<VirtualBlock> rawToBlock = new Int2ObjectOpenHashMap<>();
+  // The direct storage keeps only the network ids, so the blocks that differ from their rawToBlock entry by the flags are kept by their index.
+  private Int2ObjectOpenHashMap<VirtualBlock> directOverrides = new Int2ObjectOpenHashMap<>();
   private CompactStorage storage;
 
   public BlockStorage19(ProtocolVersion version) {
     this.version = version;
     this.palette.add(SimpleBlock.AIR);
+    this.indexPalette();
     this.rawToBlock.put(SimpleBlock.AIR.getId(version), SimpleBlock.AIR);
     this.storage = this.createStorage(4);
   }
 
-  private BlockStorage19(ProtocolVersion version, List<VirtualBlock> palette, Map<Short, VirtualBlock> rawToBlock, CompactStorage storage) {
+  private BlockStorage19(ProtocolVersion version, List<VirtualBlock> palette, Int2ObjectOpenHashMap<VirtualBlock> rawToBlock,
+      Int2ObjectOpenHashMap<VirtualBlock> directOverrides, CompactStorage storage) {
     this.version = version;
     this.palette = palette;
+    this.indexPalette();
     this.rawToBlock = rawToBlock;
+    this.directOverrides = directOverrides;
     this.storage = storage;
   }
 
   @Override
   public void set(int x, int y, int z, @NonNull VirtualBlock block) {
-    int id = this.getIndex(block);
-    this.storage.set(index(x, y, z), id);
+    int index = index(x, y, z);
+    this.storage.set(index, this.getIndex(block));
+    if (this.storage.getBitsPerEntry() > 8) {
+      this.setDirectOverride(index, block);
+    }
   }
 
   @NonNull
@@ -70,7 +83,8 @@ public class BlockStorage19 implements BlockStorage {
     int id = this.storage.get(index);
 
     if (this.storage.getBitsPerEntry() > 8) {
-      return this.rawToBlock.get((short) id);
+      VirtualBlock block = this.directOverrides.get(index);
+      return block == null ? this.rawToBlock.get(id) : block;
     } else {
       return this.palette.get(id);
     }
@@ -83,7 +97,9 @@ public class BlockStorage19 implements BlockStorage {
     }
     ByteBuf buf = (ByteBuf) byteBufObject;
     buf.writeByte(this.storage.getBitsPerEntry());
-    if (this.storage.getBitsPerEntry() > 8) {
+    if (this.storage.getBitsPerEntry() == 0) {
+      ProtocolUtils.writeVarInt(buf, this.palette.get(0).getId(this.version));
+    } else if (this.storage.getBitsPerEntry() > 8) {
       if (this.version.compareTo(ProtocolVersion.MINECRAFT_1_13) < 0) {
         ProtocolUtils.writeVarInt(buf, 0);
       }
@@ -100,7 +116,9 @@ public class BlockStorage19 implements BlockStorage {
   @Override
   public int getDataLength(ProtocolVersion version) {
     int length = 1;
-    if (this.storage.getBitsPerEntry() > 8) {
+    if (this.storage.getBitsPerEntry() == 0) {
+      length += ProtocolUtils.varIntBytes(this.palette.get(0).getId(this.version));
+    } else if (this.storage.getBitsPerEntry() > 8) {
       if (this.version.compareTo(ProtocolVersion.MINECRAFT_1_13) < 0) {
         length += 1;
       }
@@ -114,40 +132,240 @@ public class BlockStorage19 implements BlockStorage {
     return length + this.storage.getDataLength();
   }
 
+  /**
+   * Fills this storage with the blocks of another one. The palette is remapped once,
+   * and the packed values are copied or repacked in bulk instead of setting every block.
+   *
+   * @return Amount of non-air blocks.
+   */
+  public int transcode(BlockStorage19 source) {
+    CompactStorage sourceStorage = source.storage;
+    int bits = StorageUtils19.fixBitsPerEntry(this.version, sourceStorage.getBitsPerEntry());
+    CompactStorage newStorage = this.createStorage(bits);
+    this.palette = new ArrayList<>(source.palette);
+    this.indexPalette();
+    this.rawToBlock = new Int2ObjectOpenHashMap<>();
+    this.rawToBlock.put(SimpleBlock.AIR.getId(this.version), SimpleBlock.AIR);
+    this.directOverrides = new Int2ObjectOpenHashMap<>();
+
+    int blockCount = 0;
+    if (sourceStorage.getBitsPerEntry() > 8) {
+      short air = SimpleBlock.AIR.getId(this.version);
+      Int2IntOpenHashMap remap = new Int2IntOpenHashMap(source.rawToBlock.size());
+      remap.defaultReturnValue(air);
+      // Different source ids may share one id in this version, then the blocks that don't match the kept entry need the overrides.
+      boolean merged = false;
+      for (Int2ObjectMap.Entry<VirtualBlock> entry : source.rawToBlock.int2ObjectEntrySet()) {
+        VirtualBlock block = entry.getValue();
+        if (!block.isAir()) {
+          short id = block.getId(this.version);
+          remap.put(entry.getIntKey(), id);
+          VirtualBlock stored = this.rawToBlock.putIfAbsent(id, block);
+          merged |= stored != null && stored != block;
+        }
+      }
+
+      for (int i = 0; i < SimpleChunk.MAX_BLOCKS_PER_SECTION; ++i) {
+        int raw = sourceStorage.get(i);
+        int id = remap.get(raw);
+        if (id != air) {
+          newStorage.set(i, id);
+          if (merged) {
+            this.setDirectOverride(i, source.rawToBlock.get(raw));
+          }
+          ++blockCount;
+        }
+      }
+
+      for (Int2ObjectMap.Entry<VirtualBlock> entry : source.directOverrides.int2ObjectEntrySet()) {
+        int i = entry.getIntKey();
+        VirtualBlock block = entry.getValue();
+        if (remap.get(sourceStorage.get(i)) != air) {
+          --blockCount;
+        }
+
+        if (block.isAir()) {
+          newStorage.set(i, air);
+          this.directOverrides.remove(i);
+        } else {
+          short id = block.getId(this.version);
+          this.rawToBlock.putIfAbsent(id, block);
+          newStorage.set(i, id);
+          this.setDirectOverride(i, block);
+          ++blockCount;
+        }
+      }
+    } else {
+      // Palette indices are kept, only air variants are collapsed into the air entry.
+      int[] remap = new int[this.palette.size()];
+      boolean identity = true;
+      for (int i = 0; i < remap.length; ++i) {
+        remap[i] = this.palette.get(i).isAir() ? 0 : i;
+        identity &= remap[i] == i;
+      }
+
+      boolean samePacking = identity && newStorage.getClass() == sourceStorage.getClass();
+      if (samePacking) {
+        newStorage = sourceStorage.copy();
+      }
+
+      for (int i = 0; i < SimpleChunk.MAX_BLOCKS_PER_SECTION; ++i) {
+        int index = remap[sourceStorage.get(i)];
+        if (index != 0) {
+          if (!samePacking) {
+            newStorage.set(i, index);
+          }
+          ++blockCount;
+        }
+      }
+    }
+
+    this.storage = newStorage;
+    return blockCount;
+  }
+
+  /**
+   * Replaces every block of this storage at once, the palette is reset to air and the given block.
+   */
+  public void fill(@NonNull VirtualBlock block) {
+    this.palette = new ArrayList<>();
+    this.palette.add(SimpleBlock.AIR);
+    this.rawToBlock = new Int2ObjectOpenHashMap<>();
+    this.rawToBlock.put(SimpleBlock.AIR.getId(this.version), SimpleBlock.AIR);
+    this.directOverrides = new Int2ObjectOpenHashMap<>();
+    this.storage = this.createStorage(4);
+    if (block.getModernId() != SimpleBlock.AIR.getModernId()) {
+      this.palette.add(block);
+      // Both packings store 16 entries of 4 bits per long, so every nibble holds the palette index 1.
+      Arrays.fill(this.storage.getData(), 0x1111111111111111L);
+    }
+
+    this.indexPalette();
+  }
+
+  /**
+   * Drops unused palette entries and packs the blocks with the smallest width the version allows.
+   * A uniform storage switches to the single value palette on 1.18+.
+   */
+  public void compact() {
+    if (this.storage.getBitsPerEntry() == 0) {
+      return;
+    }
+
+    Int2IntOpenHashMap indices = new Int2IntOpenHashMap();
+    indices.defaultReturnValue(-1);
+    List<VirtualBlock> palette = new ArrayList<>();
+    int[] values = new int[SimpleChunk.MAX_BLOCKS_PER_SECTION];
+    for (int i = 0; i < SimpleChunk.MAX_BLOCKS_PER_SECTION; ++i) {
+      VirtualBlock block = this.get(i);
+      int key = getPaletteKey(block);
+      int index = indices.get(key);
+      if (index == -1) {
+        index = palette.size();
+        indices.put(key, index);
+        palette.add(block);
+      }
+      values[i] = index;
+    }
+
+    if (palette.size() == 1 && this.version.compareTo(ProtocolVersion.MINECRAFT_1_18) >= 0) {
+      this.palette = palette;
+      this.indexPalette();
+      this.directOverrides = new Int2ObjectOpenHashMap<>();
+      this.storage = new SingleValueStorage(SimpleChunk.MAX_BLOCKS_PER_SECTION);
+      return;
+    }
+
+    int bits = StorageUtils19.fixBitsPerEntry(this.version, 32 - Integer.numberOfLeadingZeros(palette.size() - 1));
+    if (bits > 8 || (this.storage.getBitsPerEntry() <= 8 && palette.size() == this.palette.size())) {
+      return;
+    }
+
+    CompactStorage newStorage = this.createStorage(bits);
+    for (int i = 0; i < SimpleChunk.MAX_BLOCKS_PER_SECTION; ++i) {
+      if (values[i] != 0) {
+        newStorage.set(i, values[i]);
+      }
+    }
+    this.palette = palette;
+    this.indexPalette();
+    this.directOverrides = new Int2ObjectOpenHashMap<>();
+    this.storage = newStorage;
+  }
+
   @Override
   public BlockStorage copy() {
-    return new BlockStorage19(this.version, new ArrayList<>(this.palette), new HashMap<>(this.rawToBlock), this.storage.copy());
+    return new BlockStorage19(
+        this.version,
+        new ArrayList<>(this.palette),
+        new Int2ObjectOpenHashMap<>(this.rawToBlock),
+        new Int2ObjectOpenHashMap<>(this.directOverrides),
+        this.storage.copy()
+    );
   }
 
   private int getIndex(VirtualBlock block) {
     if (this.storage.getBitsPerEntry() > 8) {
       short raw = block.getId(this.version);
-      this.rawToBlock.put(raw, block);
+      this.rawToBlock.putIfAbsent(raw, block);
       return raw;
     }
-    int id = this.palette.indexOf(block);
+    int key = getPaletteKey(block);
+    int id = this.paletteIndices.get(key);
     if (id == -1) {
       if (this.palette.size() >= (1 << this.storage.getBitsPerEntry())) {
         this.resize(this.storage.getBitsPerEntry() + 1);
         return this.getIndex(block);
       }
+      id = this.palette.size();
       this.palette.add(block);
-      id = this.palette.size() - 1;
+      this.paletteIndices.put(key, id);
     }
     return id;
   }
 
+  private void setDirectOverride(int index, VirtualBlock block) {
+    VirtualBlock stored = this.rawToBlock.get(block.getId(this.version));
+    if (stored == block || getPaletteKey(stored) == getPaletteKey(block)) {
+      this.directOverrides.remove(index);
+    } else {
+      this.directOverrides.put(index, block);
+    }
+  }
+
+  private void indexPalette() {
+    this.paletteIndices = new Int2IntOpenHashMap(this.palette.size());
+    this.paletteIndices.defaultReturnValue(-1);
+    // Backwards, so the first of the entries with the same key is kept.
+    for (int i = this.palette.size() - 1; i >= 0; --i) {
+      this.paletteIndices.put(getPaletteKey(this.palette.get(i)), i);
+    }
+  }
+
   private void resize(int newSize) {
     newSize = StorageUtils19.fixBitsPerEntry(this.version, newSize);
     CompactStorage newStorage = this.createStorage(newSize);
 
     for (int i = 0; i < SimpleChunk.MAX_BLOCKS_PER_SECTION; ++i) {
-      int newId = newSize > 8 ? this.palette.get(this.storage.get(i)).getId(this.version) : this.storage.get(i);
+      int newId;
+      if (newSize > 8) {
+        VirtualBlock block = this.palette.get(this.storage.get(i));
+        newId = block.getId(this.version);
+        this.rawToBlock.putIfAbsent(newId, block);
+        this.setDirectOverride(i, block);
+      } else {
+        newId = this.storage.get(i);
+      }
       newStorage.set(i, newId);
     }
     this.storage = newStorage;
   }
 
+  // The heightmap is built from the flags, so the blocks with the same id but different flags can't share an entry.
+  private static int getPaletteKey(VirtualBlock block) {
+    return block.getModernId() & 0xFFFF | (block.isAir() ? 1 << 16 : 0) | (block.isSolid() ? 1 << 17 : 0) | (block.isMotionBlocking() ? 1 << 18 : 0);
+  }
+
   private CompactStorage createStorage(int bits) {
     return this.version.compareTo(ProtocolVersion.MINECRAFT_1_16) < 0
         ? new BitStorage19(bits, SimpleChunk.MAX_BLOCKS_PER_SECTION)
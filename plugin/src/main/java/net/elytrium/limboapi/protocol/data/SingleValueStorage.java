@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.elytrium.limboapi.protocol.data;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.proxy.protocol.ProtocolUtils;
+import io.netty.buffer.ByteBuf;
+import net.elytrium.limboapi.api.chunk.util.CompactStorage;
+
+/**
+ * 0 bits per entry storage (1.18+), every entry points to the first palette entry.
+ */
+public class SingleValueStorage implements CompactStorage {
+
+  private static final long[] EMPTY = new long[0];
+
+  private final int size;
+
+  public SingleValueStorage(int size) {
+    this.size = size;
+  }
+
+  @Override
+  public void set(int index, int value) {
+    if (index < 0 || index > this.size - 1) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    if (value != 0) {
+      throw new IllegalArgumentException("Value cannot be outside of accepted range.");
+    }
+  }
+
+  @Override
+  public int get(int index) {
+    if (index < 0 || index > this.size - 1) {
+      throw new IndexOutOfBoundsException();
+    }
+
+    return 0;
+  }
+
+  @Override
+  public void write(Object byteBufObject, ProtocolVersion version) {
+    if (!(byteBufObject instanceof ByteBuf)) {
+      throw new IllegalArgumentException("Not ByteBuf");
+    }
+    ProtocolUtils.writeVarInt((ByteBuf) byteBufObject, 0);
+  }
+
+  @Override
+  public int getBitsPerEntry() {
+    return 0;
+  }
+
+  @Override
+  public int getDataLength() {
+    return 1;
+  }
+
+  @Override
+  public long[] getData() {
+    return EMPTY;
+  }
+
+  @Override
+  public CompactStorage copy() {
+    return new SingleValueStorage(this.size);
+  }
+}
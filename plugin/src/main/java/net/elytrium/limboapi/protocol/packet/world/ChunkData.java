@@ -26,37 +26,53 @@ import com.velocitypowered.proxy.protocol.ProtocolUtils.Direction;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
+import java.security.MessageDigest;
 import java.util.BitSet;
-import java.util.zip.Deflater;
+import java.util.EnumSet;
 import net.elytrium.limboapi.LimboAPI;
+import net.elytrium.limboapi.Settings;
 import net.elytrium.limboapi.api.chunk.VirtualBlock;
+import net.elytrium.limboapi.api.chunk.data.BlockSection;
 import net.elytrium.limboapi.api.chunk.data.ChunkSnapshot;
 import net.elytrium.limboapi.api.chunk.data.LightSection;
-import net.elytrium.limboapi.api.chunk.util.CompactStorage;
 import net.elytrium.limboapi.api.material.Block;
+import net.elytrium.limboapi.api.mcprotocollib.NibbleArray3d;
 import net.elytrium.limboapi.api.protocol.packets.data.BiomeData;
+import net.elytrium.limboapi.injection.packet.PreparedPacketCache;
 import net.elytrium.limboapi.material.Biome;
-import net.elytrium.limboapi.mcprotocollib.BitStorage116;
-import net.elytrium.limboapi.mcprotocollib.BitStorage19;
+import net.elytrium.limboapi.protocol.util.ChunkEncodingClasses;
+import net.elytrium.limboapi.protocol.util.HashablePacket;
 import net.elytrium.limboapi.protocol.util.NetworkSection;
-import net.kyori.adventure.nbt.CompoundBinaryTag;
+import net.elytrium.limboapi.protocol.util.PooledDeflater;
+import net.elytrium.limboapi.server.world.SimpleBlock;
+import net.elytrium.limboapi.server.world.chunk.SimpleChunkBiomes;
+import net.elytrium.limboapi.server.world.chunk.SimpleChunkSnapshot;
+import net.elytrium.limboapi.server.world.chunk.SimpleHeightmap;
+import net.elytrium.limboapi.server.world.chunk.SimpleLightSection;
 
-public class ChunkData implements MinecraftPacket {
+public class ChunkData implements MinecraftPacket, HashablePacket {
 
   private final ChunkSnapshot chunk;
   private final NetworkSection[] sections;
   private final int mask;
   private final int maxSections;
+  private final boolean skyLight;
   private final int nonNullSections;
   private final BiomeData biomeData;
-  private final CompoundBinaryTag heightmap114;
-  private final CompoundBinaryTag heightmap116;
+  private final SimpleHeightmap heightmap;
+  private volatile EncodedChunk lastEncoded;
+  private volatile byte[] compressed17;
+  private volatile byte[] sourceHash;
 
   public ChunkData(ChunkSnapshot chunkSnapshot, boolean skyLight, int maxSections) {
     this.maxSections = maxSections;
+    this.skyLight = skyLight;
     this.sections = new NetworkSection[maxSections];
 
     this.chunk = chunkSnapshot;
+    SimpleChunkBiomes biomes = chunkSnapshot instanceof SimpleChunkSnapshot
+        ? ((SimpleChunkSnapshot) chunkSnapshot).getChunkBiomes()
+        : SimpleChunkBiomes.of(chunkSnapshot.getBiomes());
     int mask = 0;
     int nonNullSections = 0;
     for (int i = 0; i < this.chunk.getSections().length; ++i) {
@@ -69,7 +85,7 @@ public class ChunkData implements MinecraftPacket {
             this.chunk.getSections()[i],
             light.getBlockLight(),
             skyLight ? light.getSkyLight() : null,
-            this.chunk.getBiomes()
+            biomes
         );
         this.sections[i] = section;
       }
@@ -77,9 +93,10 @@ public class ChunkData implements MinecraftPacket {
 
     this.nonNullSections = nonNullSections;
     this.mask = mask;
-    this.heightmap114 = this.createHeightMap(true);
-    this.heightmap116 = this.createHeightMap(false);
-    this.biomeData = new BiomeData(this.chunk);
+    this.heightmap = chunkSnapshot instanceof SimpleChunkSnapshot
+        ? ((SimpleChunkSnapshot) chunkSnapshot).getHeightmap()
+        : SimpleHeightmap.of(chunkSnapshot);
+    this.biomeData = new BiomeData(biomes.getIds());
   }
 
   public ChunkData() {
@@ -93,6 +110,22 @@ public class ChunkData implements MinecraftPacket {
 
   @Override
   public void encode(ByteBuf buf, Direction direction, ProtocolVersion version) {
+    ProtocolVersion representative = ChunkEncodingClasses.getRepresentative(version);
+    EncodedChunk encoded = this.lastEncoded;
+    if (encoded != null && encoded.representative == representative) {
+      buf.writeBytes(encoded.data);
+      return;
+    }
+
+    int start = buf.writerIndex();
+    this.encodeChunk(buf, representative);
+    byte[] data = new byte[buf.writerIndex() - start];
+    buf.getBytes(start, data);
+    // Versions are prepared in ascending order, so only the last class has to be kept.
+    this.lastEncoded = new EncodedChunk(representative, data);
+  }
+
+  private void encodeChunk(ByteBuf buf, ProtocolVersion version) {
     if (!this.chunk.isFullChunk()) {
       // 1.17 supports only full chunks.
       Preconditions.checkState(version.compareTo(ProtocolVersion.MINECRAFT_1_17) < 0);
@@ -126,11 +159,7 @@ public class ChunkData implements MinecraftPacket {
 
     // 1.14+ heightMap.
     if (version.compareTo(ProtocolVersion.MINECRAFT_1_14) >= 0) {
-      if (version.compareTo(ProtocolVersion.MINECRAFT_1_16) < 0) {
-        ProtocolUtils.writeCompoundTag(buf, this.heightmap114);
-      } else {
-        ProtocolUtils.writeCompoundTag(buf, this.heightmap116);
-      }
+      buf.writeBytes(this.heightmap.getEncoded(version.compareTo(ProtocolVersion.MINECRAFT_1_16) < 0));
     }
 
     // 1.15 - 1.17 biomes.
@@ -147,41 +176,118 @@ public class ChunkData implements MinecraftPacket {
       }
     }
 
+    if (version.compareTo(ProtocolVersion.MINECRAFT_1_8) < 0) {
+      this.write17(buf, version);
+      return;
+    }
+
     ByteBuf data = this.createChunkData(version);
     try {
-      if (version.compareTo(ProtocolVersion.MINECRAFT_1_8) >= 0) {
-        ProtocolUtils.writeVarInt(buf, data.readableBytes());
-        buf.writeBytes(data);
-        if (version.compareTo(ProtocolVersion.MINECRAFT_1_9_4) >= 0) {
-          ProtocolUtils.writeVarInt(buf, 0); // Tile entities currently doesnt supported.
-        }
-        if (version.compareTo(ProtocolVersion.MINECRAFT_1_17_1) > 0) {
-          long[] mask = this.create117Mask();
-          buf.writeBoolean(true); // Trust edges.
-          ProtocolUtils.writeVarInt(buf, mask.length); // Skylight mask.
-          for (long m : mask) {
-            buf.writeLong(m);
-          }
-          ProtocolUtils.writeVarInt(buf, mask.length); // BlockLight mask.
-          for (long m : mask) {
-            buf.writeLong(m);
-          }
-          ProtocolUtils.writeVarInt(buf, 0); // EmptySkylight mask.
-          ProtocolUtils.writeVarInt(buf, 0); // EmptyBlockLight mask.
-          ProtocolUtils.writeVarInt(buf, this.chunk.getLight().length);
-          for (LightSection section : this.chunk.getLight()) {
-            ProtocolUtils.writeByteArray(buf, section.getSkyLight().getData());
-          }
-          ProtocolUtils.writeVarInt(buf, this.chunk.getLight().length);
-          for (LightSection section : this.chunk.getLight()) {
-            ProtocolUtils.writeByteArray(buf, section.getBlockLight().getData());
+      ProtocolUtils.writeVarInt(buf, data.readableBytes());
+      buf.writeBytes(data);
+      if (version.compareTo(ProtocolVersion.MINECRAFT_1_9_4) >= 0) {
+        ProtocolUtils.writeVarInt(buf, 0); // Tile entities currently doesnt supported.
+      }
+      if (version.compareTo(ProtocolVersion.MINECRAFT_1_17_1) > 0) {
+        this.write118Light(buf);
+      }
+    } finally {
+      ReferenceCountUtil.release(data);
+    }
+  }
+
+  @Override
+  public byte[] getSourceHash() {
+    byte[] hash = this.sourceHash;
+    if (hash == null) {
+      hash = this.hashSource();
+      this.sourceHash = hash;
+    }
+
+    return hash;
+  }
+
+  // Everything the encoded chunk depends on: the position, the masks, the blocks with their heightmap flags, the light and the biomes.
+  private byte[] hashSource() {
+    MessageDigest digest = PreparedPacketCache.createDigest();
+    ByteBuf buf = Unpooled.buffer(16 * 16 * 16 * 3);
+    try {
+      buf.writeInt(this.chunk.getX());
+      buf.writeInt(this.chunk.getZ());
+      buf.writeBoolean(this.chunk.isFullChunk());
+      buf.writeBoolean(this.skyLight);
+      buf.writeInt(this.maxSections);
+      buf.writeInt(this.mask);
+      digest.update(buf.nioBuffer());
+
+      for (BlockSection section : this.chunk.getSections()) {
+        if (section != null) {
+          buf.clear();
+          for (int y = 0; y < 16; ++y) {
+            for (int z = 0; z < 16; ++z) {
+              for (int x = 0; x < 16; ++x) {
+                writeBlock(buf, section.getBlockAt(x, y, z));
+              }
+            }
           }
+          digest.update(buf.nioBuffer());
         }
-      } else {
-        this.write17(buf, data);
       }
+
+      for (LightSection light : this.chunk.getLight()) {
+        digest.update(light.getBlockLight().getData());
+        digest.update(light.getSkyLight().getData());
+      }
+
+      buf.clear();
+      for (int biome : this.biomeData.getPost115Biomes()) {
+        buf.writeInt(biome);
+      }
+      digest.update(buf.nioBuffer());
     } finally {
-      ReferenceCountUtil.release(data);
+      buf.release();
+    }
+
+    return digest.digest();
+  }
+
+  private static void writeBlock(ByteBuf buf, VirtualBlock block) {
+    buf.writeShort(block.getModernId());
+    buf.writeByte((block.isAir() ? 1 : 0) | (block.isSolid() ? 2 : 0) | (block.isMotionBlocking() ? 4 : 0));
+    if (!(block instanceof SimpleBlock)) {
+      // Only the ids of the built-in blocks are defined by their modern id.
+      for (ProtocolVersion version : EnumSet.range(ProtocolVersion.MINIMUM_VERSION, ProtocolVersion.MAXIMUM_VERSION)) {
+        buf.writeShort(block.getId(version));
+      }
+    }
+  }
+
+  /**
+   * @return true if the chunk can be sent in {@link MapChunkBulk} to 1.7 and 1.8 clients.
+   */
+  public boolean isBulkable() {
+    // Bulk columns are parsed by their mask, so the void-chunk workaround for OptiFine can't be used there.
+    return this.chunk.isFullChunk() && this.mask != 0;
+  }
+
+  public ChunkSnapshot getChunk() {
+    return this.chunk;
+  }
+
+  public int getMask() {
+    return this.mask;
+  }
+
+  public boolean hasSkyLight() {
+    return this.skyLight;
+  }
+
+  public void writeBulkData(ByteBuf buf, ProtocolVersion version) {
+    ByteBuf data = this.createChunkData(version);
+    try {
+      buf.writeBytes(data);
+    } finally {
+      data.release();
     }
   }
 
@@ -232,30 +338,6 @@ public class ChunkData implements MinecraftPacket {
     return data;
   }
 
-  private CompoundBinaryTag createHeightMap(boolean pre116) {
-    CompactStorage surface = pre116 ? new BitStorage19(9, 256) : new BitStorage116(9, 256);
-    CompactStorage motionBlocking = pre116 ? new BitStorage19(9, 256) : new BitStorage116(9, 256);
-
-    for (int y = 0; y < 256; ++y) {
-      for (int x = 0; x < 16; ++x) {
-        for (int z = 0; z < 16; ++z) {
-          VirtualBlock block = this.chunk.getBlock(x, y, z);
-          if (!block.isAir()) {
-            surface.set(x + (z << 4), y + 1);
-          }
-          if (block.isMotionBlocking()) {
-            motionBlocking.set(x + (z << 4), y + 1);
-          }
-        }
-      }
-    }
-
-    return CompoundBinaryTag.builder()
-        .putLongArray("MOTION_BLOCKING", motionBlocking.getData())
-        .putLongArray("WORLD_SURFACE", surface.getData())
-        .build();
-  }
-
   private long[] create117Mask() {
     return BitSet.valueOf(
         new long[] {
@@ -264,31 +346,102 @@ public class ChunkData implements MinecraftPacket {
     ).toLongArray();
   }
 
-  private void write17(ByteBuf out, ByteBuf data) {
+  private void write118Light(ByteBuf buf) {
+    // Bit i of the masks is the light section i, where 0 is the section below the world.
+    LightSection[] light = this.chunk.getLight();
+    long skyMask = 0;
+    long blockMask = 0;
+    for (int i = 0; i < light.length; ++i) {
+      if (!isEmpty(light[i].getSkyLight())) {
+        skyMask |= 1L << i;
+      }
+      if (!isEmpty(light[i].getBlockLight())) {
+        blockMask |= 1L << i;
+      }
+    }
+
+    long allMask = (1L << light.length) - 1;
+    buf.writeBoolean(true); // Trust edges.
+    writeLightMask(buf, skyMask); // Skylight mask.
+    writeLightMask(buf, blockMask); // BlockLight mask.
+    writeLightMask(buf, ~skyMask & allMask); // EmptySkylight mask.
+    writeLightMask(buf, ~blockMask & allMask); // EmptyBlockLight mask.
+    ProtocolUtils.writeVarInt(buf, Long.bitCount(skyMask));
+    for (int i = 0; i < light.length; ++i) {
+      if ((skyMask & 1L << i) != 0) {
+        ProtocolUtils.writeByteArray(buf, light[i].getSkyLight().getData());
+      }
+    }
+    ProtocolUtils.writeVarInt(buf, Long.bitCount(blockMask));
+    for (int i = 0; i < light.length; ++i) {
+      if ((blockMask & 1L << i) != 0) {
+        ProtocolUtils.writeByteArray(buf, light[i].getBlockLight().getData());
+      }
+    }
+  }
+
+  private static void writeLightMask(ByteBuf buf, long mask) {
+    if (mask == 0) {
+      ProtocolUtils.writeVarInt(buf, 0);
+    } else {
+      ProtocolUtils.writeVarInt(buf, 1);
+      buf.writeLong(mask);
+    }
+  }
+
+  private static boolean isEmpty(NibbleArray3d light) {
+    if (light == SimpleLightSection.NO_LIGHT) {
+      return true;
+    }
+
+    for (byte b : light.getData()) {
+      if (b != 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private void write17(ByteBuf out, ProtocolVersion version) {
     out.writeShort(0); // Extended bitmask.
-    byte[] uncompressed = new byte[data.readableBytes()];
-    data.readBytes(uncompressed);
-    ByteBuf compressed = Unpooled.buffer();
-    Deflater deflater = new Deflater(9);
-    try {
-      deflater.setInput(uncompressed);
-      deflater.finish();
-      byte[] buffer = new byte[1024];
-      while (!deflater.finished()) {
-        int count = deflater.deflate(buffer);
-        compressed.writeBytes(buffer, 0, count);
+    // The 1.7 chunk data doesn't depend on the exact version, so it is compressed only once per chunk.
+    byte[] compressed = this.compressed17;
+    if (compressed == null) {
+      ByteBuf data = this.createChunkData(version);
+      try {
+        ByteBuf deflated = PooledDeflater.deflate(data, Settings.IMP.MAIN.LEGACY_CHUNK_COMPRESSION_LEVEL);
+        try {
+          compressed = new byte[deflated.readableBytes()];
+          deflated.readBytes(compressed);
+        } finally {
+          deflated.release();
+        }
+      } finally {
+        data.release();
       }
-      out.writeInt(compressed.readableBytes()); // Compressed size.
-      out.writeBytes(compressed);
-    } finally {
-      deflater.end();
-      compressed.release();
+
+      this.compressed17 = compressed;
     }
+
+    out.writeInt(compressed.length); // Compressed size.
+    out.writeBytes(compressed);
   }
 
   @Override
   public boolean handle(MinecraftSessionHandler handler) {
     return true;
   }
+
+  private static class EncodedChunk {
+
+    private final ProtocolVersion representative;
+    private final byte[] data;
+
+    private EncodedChunk(ProtocolVersion representative, byte[] data) {
+      this.representative = representative;
+      this.data = data;
+    }
+  }
 }
 
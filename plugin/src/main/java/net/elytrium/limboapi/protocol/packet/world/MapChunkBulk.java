@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.elytrium.limboapi.protocol.packet.world;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.proxy.connection.MinecraftSessionHandler;
+import com.velocitypowered.proxy.protocol.MinecraftPacket;
+import com.velocitypowered.proxy.protocol.ProtocolUtils;
+import com.velocitypowered.proxy.protocol.ProtocolUtils.Direction;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import net.elytrium.limboapi.Settings;
+import net.elytrium.limboapi.injection.packet.PreparedPacketCache;
+import net.elytrium.limboapi.protocol.util.HashablePacket;
+import net.elytrium.limboapi.protocol.util.PooledDeflater;
+
+/**
+ * Many chunk columns in one packet, 1.7 and 1.8 only. In 1.7 all the columns share one zlib stream.
+ */
+public class MapChunkBulk implements MinecraftPacket, HashablePacket {
+
+  // The same amount of columns as the vanilla 1.8 server puts into one packet.
+  public static final int MAX_COLUMNS = 10;
+
+  private final List<ChunkData> chunks;
+  private final boolean skyLight;
+
+  public MapChunkBulk(List<ChunkData> chunks, boolean skyLight) {
+    this.chunks = chunks;
+    this.skyLight = skyLight;
+  }
+
+  public MapChunkBulk() {
+    throw new IllegalStateException();
+  }
+
+  /**
+   * Groups the chunks into bulk packets, the chunks that can't be sent in bulk are kept as is.
+   */
+  public static List<MinecraftPacket> group(List<ChunkData> chunks) {
+    List<MinecraftPacket> packets = new ArrayList<>();
+    List<ChunkData> skyLight = new ArrayList<>(MAX_COLUMNS);
+    List<ChunkData> noSkyLight = new ArrayList<>(MAX_COLUMNS);
+    for (ChunkData chunk : chunks) {
+      if (!chunk.isBulkable()) {
+        packets.add(chunk);
+        continue;
+      }
+
+      List<ChunkData> bulk = chunk.hasSkyLight() ? skyLight : noSkyLight;
+      bulk.add(chunk);
+      if (bulk.size() == MAX_COLUMNS) {
+        packets.add(new MapChunkBulk(new ArrayList<>(bulk), chunk.hasSkyLight()));
+        bulk.clear();
+      }
+    }
+
+    if (!skyLight.isEmpty()) {
+      packets.add(new MapChunkBulk(skyLight, true));
+    }
+    if (!noSkyLight.isEmpty()) {
+      packets.add(new MapChunkBulk(noSkyLight, false));
+    }
+
+    return packets;
+  }
+
+  @Override
+  public byte[] getSourceHash() {
+    // The members already hash their sources, so the bulk packet is never encoded just to find the cache.
+    MessageDigest digest = PreparedPacketCache.createDigest();
+    digest.update((byte) (this.skyLight ? 1 : 0));
+    for (ChunkData chunk : this.chunks) {
+      digest.update(chunk.getSourceHash());
+    }
+
+    return digest.digest();
+  }
+
+  @Override
+  public void decode(ByteBuf buf, Direction direction, ProtocolVersion protocolVersion) {
+
+  }
+
+  @Override
+  public void encode(ByteBuf buf, Direction direction, ProtocolVersion version) {
+    if (version.compareTo(ProtocolVersion.MINECRAFT_1_8) < 0) {
+      this.write17(buf, version);
+    } else {
+      this.write18(buf, version);
+    }
+  }
+
+  private void write17(ByteBuf buf, ProtocolVersion version) {
+    ByteBuf data = Unpooled.buffer();
+    try {
+      for (ChunkData chunk : this.chunks) {
+        chunk.writeBulkData(data, version);
+      }
+
+      buf.writeShort(this.chunks.size());
+      ByteBuf compressed = PooledDeflater.deflate(data, Settings.IMP.MAIN.LEGACY_CHUNK_COMPRESSION_LEVEL);
+      try {
+        buf.writeInt(compressed.readableBytes());
+        buf.writeBoolean(this.skyLight);
+        buf.writeBytes(compressed);
+      } finally {
+        compressed.release();
+      }
+    } finally {
+      data.release();
+    }
+
+    for (ChunkData chunk : this.chunks) {
+      buf.writeInt(chunk.getChunk().getX());
+      buf.writeInt(chunk.getChunk().getZ());
+      buf.writeShort(chunk.getMask());
+      buf.writeShort(0); // Extended bitmask.
+    }
+  }
+
+  private void write18(ByteBuf buf, ProtocolVersion version) {
+    buf.writeBoolean(this.skyLight);
+    ProtocolUtils.writeVarInt(buf, this.chunks.size());
+    for (ChunkData chunk : this.chunks) {
+      buf.writeInt(chunk.getChunk().getX());
+      buf.writeInt(chunk.getChunk().getZ());
+      buf.writeShort(chunk.getMask());
+    }
+
+    for (ChunkData chunk : this.chunks) {
+      chunk.writeBulkData(buf, version);
+    }
+  }
+
+  @Override
+  public boolean handle(MinecraftSessionHandler handler) {
+    return true;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.elytrium.limboapi.protocol.util;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import java.util.EnumMap;
+import java.util.Map;
+import net.elytrium.limboapi.server.world.SimpleBlock;
+
+/**
+ * Groups protocol versions that share the same chunk wire format and block state id table,
+ * so chunk sections and chunk packets are encoded once per group instead of once per version.
+ */
+public class ChunkEncodingClasses {
+
+  private static final ProtocolVersion[] FORMAT_THRESHOLDS = {
+      ProtocolVersion.MINECRAFT_1_8,
+      ProtocolVersion.MINECRAFT_1_9,
+      ProtocolVersion.MINECRAFT_1_9_4,
+      ProtocolVersion.MINECRAFT_1_13,
+      ProtocolVersion.MINECRAFT_1_14,
+      ProtocolVersion.MINECRAFT_1_15,
+      ProtocolVersion.MINECRAFT_1_16,
+      ProtocolVersion.MINECRAFT_1_16_2,
+      ProtocolVersion.MINECRAFT_1_16_4,
+      ProtocolVersion.MINECRAFT_1_17,
+      ProtocolVersion.MINECRAFT_1_18
+  };
+  private static final Map<ProtocolVersion, ProtocolVersion> REPRESENTATIVES = new EnumMap<>(ProtocolVersion.class);
+
+  static {
+    ProtocolVersion representative = null;
+    for (ProtocolVersion version : ProtocolVersion.values()) {
+      if (version.compareTo(ProtocolVersion.MINIMUM_VERSION) < 0 || version.compareTo(ProtocolVersion.MAXIMUM_VERSION) > 0) {
+        continue;
+      }
+
+      if (representative == null || getFormat(representative) != getFormat(version) || !SimpleBlock.hasSameIds(representative, version)) {
+        representative = version;
+      }
+
+      REPRESENTATIVES.put(version, representative);
+    }
+  }
+
+  /**
+   * @return The lowest version that encodes chunks exactly like the given one.
+   */
+  public static ProtocolVersion getRepresentative(ProtocolVersion version) {
+    return REPRESENTATIVES.getOrDefault(version, version);
+  }
+
+  private static int getFormat(ProtocolVersion version) {
+    int format = 0;
+    for (ProtocolVersion threshold : FORMAT_THRESHOLDS) {
+      if (version.compareTo(threshold) >= 0) {
+        ++format;
+      }
+    }
+
+    return format;
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.elytrium.limboapi.protocol.util;
+
+/**
+ * A packet that can describe its content without being encoded,
+ * so the persistent cache finds the saved prepared packets without encoding them first.
+ */
+public interface HashablePacket {
+
+  /**
+   * @return SHA-256 of everything the encoded packet depends on, besides the plugin build and the preparation settings.
+   */
+  byte[] getSourceHash();
+}
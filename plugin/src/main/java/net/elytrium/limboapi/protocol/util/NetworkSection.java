@@ -21,7 +21,6 @@ import com.velocitypowered.api.network.ProtocolVersion;
 import io.netty.buffer.ByteBuf;
 import java.util.EnumMap;
 import java.util.Map;
-import net.elytrium.limboapi.api.chunk.VirtualBiome;
 import net.elytrium.limboapi.api.chunk.VirtualBlock;
 import net.elytrium.limboapi.api.chunk.data.BlockSection;
 import net.elytrium.limboapi.api.chunk.data.BlockStorage;
@@ -30,6 +29,8 @@ import net.elytrium.limboapi.protocol.data.BiomeStorage118;
 import net.elytrium.limboapi.protocol.data.BlockStorage17;
 import net.elytrium.limboapi.protocol.data.BlockStorage19;
 import net.elytrium.limboapi.server.world.chunk.SimpleChunk;
+import net.elytrium.limboapi.server.world.chunk.SimpleChunkBiomes;
+import net.elytrium.limboapi.server.world.chunk.SimpleSection;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
 public class NetworkSection {
@@ -39,11 +40,11 @@ public class NetworkSection {
   private final NibbleArray3d blockLight;
   private final NibbleArray3d skyLight;
   private final BlockSection section;
-  private final VirtualBiome[] biomes;
+  private final SimpleChunkBiomes biomes;
   private final int index;
   private int blockCount = -1;
 
-  public NetworkSection(int index, BlockSection section, @NonNull NibbleArray3d blockLight, NibbleArray3d skyLight, VirtualBiome[] biomes) {
+  public NetworkSection(int index, BlockSection section, @NonNull NibbleArray3d blockLight, NibbleArray3d skyLight, SimpleChunkBiomes biomes) {
     this.index = index;
     this.section = section;
     this.blockLight = blockLight;
@@ -96,13 +97,18 @@ public class NetworkSection {
   }
 
   private BlockStorage ensureStorageCreated(ProtocolVersion version) {
-    BlockStorage storage = this.storages.get(version);
-    if (storage == null) {
-      synchronized (this.storages) {
-        BlockStorage blockStorage = this.createStorage(version);
-        this.fillBlocks(blockStorage);
-        this.storages.put(version, blockStorage);
-        storage = blockStorage;
+    // Versions of the same encoding class share one storage.
+    ProtocolVersion representative = ChunkEncodingClasses.getRepresentative(version);
+    BlockStorage storage;
+    synchronized (this.storages) {
+      storage = this.storages.get(representative);
+      if (storage == null) {
+        storage = this.createStorage(representative);
+        this.fillBlocks(storage);
+        if (storage instanceof BlockStorage19) {
+          ((BlockStorage19) storage).compact();
+        }
+        this.storages.put(representative, storage);
       }
     }
 
@@ -158,15 +164,20 @@ public class NetworkSection {
   }
 
   private BiomeStorage118 ensure118BiomeCreated(ProtocolVersion version) {
-    BiomeStorage118 storage = this.biomeStorages.get(version);
-    if (storage == null) {
-      synchronized (this.biomeStorages) {
-        storage = new BiomeStorage118(version);
+    ProtocolVersion representative = ChunkEncodingClasses.getRepresentative(version);
+    BiomeStorage118 storage;
+    synchronized (this.biomeStorages) {
+      storage = this.biomeStorages.get(representative);
+      if (storage == null) {
         int offset = this.index * SimpleChunk.MAX_BIOMES_PER_SECTION;
-        for (int biomeIndex = 0, biomeArrayIndex = offset; biomeIndex < SimpleChunk.MAX_BIOMES_PER_SECTION; ++biomeIndex, ++biomeArrayIndex) {
-          storage.set(biomeIndex, this.biomes[biomeArrayIndex]);
+        storage = new BiomeStorage118(representative, this.biomes.get(offset));
+        if (!this.biomes.isUniform()) {
+          for (int biomeIndex = 0, biomeArrayIndex = offset; biomeIndex < SimpleChunk.MAX_BIOMES_PER_SECTION; ++biomeIndex, ++biomeArrayIndex) {
+            storage.set(biomeIndex, this.biomes.get(biomeArrayIndex));
+          }
+          storage.compact();
         }
-        this.biomeStorages.put(version, storage);
+        this.biomeStorages.put(representative, storage);
       }
     }
 
@@ -174,6 +185,18 @@ public class NetworkSection {
   }
 
   private void fillBlocks(BlockStorage storage) {
+    if (storage instanceof BlockStorage19 && this.section instanceof SimpleSection) {
+      BlockStorage source = ((SimpleSection) this.section).getStorage();
+      if (source instanceof BlockStorage19) {
+        int blockCount = ((BlockStorage19) storage).transcode((BlockStorage19) source);
+        if (this.blockCount == -1) {
+          this.blockCount = blockCount;
+        }
+
+        return;
+      }
+    }
+
     int blockCount = 0;
     for (int y = 0; y < 16; ++y) {
       for (int x = 0; x < 16; ++x) {
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.elytrium.limboapi.protocol.util;
+
+import com.velocitypowered.natives.compression.VelocityCompressor;
+import com.velocitypowered.natives.util.MoreByteBufUtils;
+import com.velocitypowered.natives.util.Natives;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+
+/**
+ * Reuses Velocity compressors (libdeflate if the natives are available, java.util.zip otherwise) instead of creating a Deflater per call.
+ */
+public class PooledDeflater {
+
+  private static final Map<Integer, Queue<VelocityCompressor>> POOL = new ConcurrentHashMap<>();
+
+  /**
+   * Compresses the readable bytes of the buffer into a zlib stream, the reader index of the buffer isn't changed.
+   *
+   * @return The compressed data, should be released by the caller.
+   */
+  public static ByteBuf deflate(ByteBuf source, int level) {
+    Queue<VelocityCompressor> pool = POOL.computeIfAbsent(level, key -> new ConcurrentLinkedQueue<>());
+    VelocityCompressor compressor = pool.poll();
+    if (compressor == null) {
+      compressor = Natives.compress.get().create(level);
+    }
+
+    ByteBuf input = MoreByteBufUtils.ensureCompatible(ByteBufAllocator.DEFAULT, compressor, source.duplicate());
+    ByteBuf output = MoreByteBufUtils.preferredBuffer(ByteBufAllocator.DEFAULT, compressor, source.readableBytes() / 2 + 64);
+    try {
+      compressor.deflate(input, output);
+      return output;
+    } catch (DataFormatException e) {
+      output.release();
+      throw new IllegalStateException(e);
+    } finally {
+      input.release();
+      pool.offer(compressor);
+      if (POOL.get(level) != pool) {
+        // The pool was disposed while this compressor was in use.
+        closeAll(pool);
+      }
+    }
+  }
+
+  /**
+   * Closes all the pooled compressors, as the native ones hold the memory outside of the heap.
+   */
+  public static void dispose() {
+    for (Integer level : POOL.keySet()) {
+      Queue<VelocityCompressor> pool = POOL.remove(level);
+      if (pool != null) {
+        closeAll(pool);
+      }
+    }
+  }
+
+  private static void closeAll(Queue<VelocityCompressor> pool) {
+    VelocityCompressor compressor;
+    while ((compressor = pool.poll()) != null) {
+      compressor.close();
+    }
+  }
+}
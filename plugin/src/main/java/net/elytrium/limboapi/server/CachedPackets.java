@@ -18,45 +18,105 @@
 package net.elytrium.limboapi.server;
 
 import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.proxy.connection.MinecraftConnection;
 import com.velocitypowered.proxy.protocol.packet.Disconnect;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import net.elytrium.limboapi.LimboAPI;
 import net.elytrium.limboapi.Settings;
 import net.elytrium.limboapi.api.protocol.PreparedPacket;
+import net.elytrium.limboapi.injection.packet.PreparedBufferPool;
 
 public class CachedPackets {
 
   private final LimboAPI plugin;
 
-  private PreparedPacket tooBigPacket;
-  private PreparedPacket invalidPing;
-  private PreparedPacket timeOut;
+  // Replaced at once by every reload, the old packets are released after the last connection that has read them is closed.
+  private final AtomicReference<Packets> packets = new AtomicReference<>();
 
   public CachedPackets(LimboAPI plugin) {
     this.plugin = plugin;
   }
 
   public void createPackets() {
-    this.tooBigPacket = this.plugin.createPreparedPacket()
-        .prepare(version -> this.createDisconnectPacket(Settings.IMP.MAIN.MESSAGES.TOO_BIG_PACKET, version));
-    this.invalidPing = this.plugin.createPreparedPacket()
-        .prepare(version -> this.createDisconnectPacket(Settings.IMP.MAIN.MESSAGES.INVALID_PING, version));
-    this.timeOut = this.plugin.createPreparedPacket()
-        .prepare(version -> this.createDisconnectPacket(Settings.IMP.MAIN.MESSAGES.TIME_OUT, version));
+    Packets oldPackets = this.packets.getAndSet(new Packets(
+        this.plugin.createPreparedPacket().prepare(version -> this.createDisconnectPacket(Settings.IMP.MAIN.MESSAGES.TOO_BIG_PACKET, version)),
+        this.plugin.createPreparedPacket().prepare(version -> this.createDisconnectPacket(Settings.IMP.MAIN.MESSAGES.INVALID_PING, version)),
+        this.plugin.createPreparedPacket().prepare(version -> this.createDisconnectPacket(Settings.IMP.MAIN.MESSAGES.TIME_OUT, version))
+    ));
+
+    if (oldPackets != null) {
+      oldPackets.release();
+    }
   }
 
   private Disconnect createDisconnectPacket(String message, ProtocolVersion version) {
     return Disconnect.create(LimboAPI.getSerializer().deserialize(message), version);
   }
 
-  public PreparedPacket getTooBigPacket() {
-    return this.tooBigPacket;
+  public void closeWithTooBigPacket(MinecraftConnection connection) {
+    this.closeWith(connection, packets -> packets.tooBigPacket);
+  }
+
+  public void closeWithInvalidPing(MinecraftConnection connection) {
+    this.closeWith(connection, packets -> packets.invalidPing);
+  }
+
+  public void closeWithTimeOut(MinecraftConnection connection) {
+    this.closeWith(connection, packets -> packets.timeOut);
+  }
+
+  private void closeWith(MinecraftConnection connection, Function<Packets, PreparedPacket> packet) {
+    Packets packets = this.acquirePackets();
+    // Velocity may write the packet later (e.g. 250 ms later for 1.7 clients), but always before the channel is closed.
+    connection.getChannel().closeFuture().addListener(future -> packets.release());
+    connection.closeWith(packet.apply(packets));
   }
 
-  public PreparedPacket getInvalidPing() {
-    return this.invalidPing;
+  // The packets can't be released by a reload until the returned Packets are released.
+  private Packets acquirePackets() {
+    while (true) {
+      Packets packets = this.packets.get();
+      if (packets.retain()) {
+        return packets;
+      }
+    }
   }
 
-  public PreparedPacket getTimeOut() {
-    return this.timeOut;
+  private static class Packets {
+
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final PreparedPacket tooBigPacket;
+    private final PreparedPacket invalidPing;
+    private final PreparedPacket timeOut;
+
+    private Packets(PreparedPacket tooBigPacket, PreparedPacket invalidPing, PreparedPacket timeOut) {
+      this.tooBigPacket = tooBigPacket;
+      this.invalidPing = invalidPing;
+      this.timeOut = timeOut;
+    }
+
+    // Fails if the packets were already released by a reload.
+    private boolean retain() {
+      int references;
+      do {
+        references = this.references.get();
+        if (references == 0) {
+          return false;
+        }
+      } while (!this.references.compareAndSet(references, references + 1));
+
+      return true;
+    }
+
+    private void release() {
+      if (this.references.decrementAndGet() == 0) {
+        this.tooBigPacket.release();
+        this.invalidPing.release();
+        this.timeOut.release();
+        PreparedBufferPool.purge();
+      }
+    }
   }
 }
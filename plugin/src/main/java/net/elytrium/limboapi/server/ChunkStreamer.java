@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.elytrium.limboapi.server;
+
+import com.velocitypowered.proxy.connection.MinecraftConnection;
+import com.velocitypowered.proxy.network.Connections;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.util.concurrent.ScheduledFuture;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.elytrium.limboapi.LimboAPI;
+import net.elytrium.limboapi.Settings;
+import net.elytrium.limboapi.injection.packet.PreparedPacketImpl;
+import net.elytrium.limboapi.protocol.LimboProtocol;
+
+/**
+ * Writes the chunk batches only while the channel is writable, and continues when it becomes writable again,
+ * so big worlds don't fill the outbound buffers of all the connections at once.
+ */
+public class ChunkStreamer extends ChannelInboundHandlerAdapter {
+
+  private final MinecraftConnection connection;
+  private final List<PreparedPacketImpl> batches;
+  private ChannelHandlerContext ctx;
+  private ScheduledFuture<?> timeout;
+  // The last time a batch was written or the channel became writable, the player is disconnected only if it stalls for the whole timeout.
+  private long lastProgress;
+  private int next;
+
+  private ChunkStreamer(MinecraftConnection connection, List<PreparedPacketImpl> batches) {
+    this.connection = connection;
+    this.batches = batches;
+    batches.forEach(PreparedPacketImpl::retain);
+  }
+
+  /**
+   * Starts streaming the batches, should be called from the event loop of the connection.
+   */
+  public static void start(MinecraftConnection connection, List<PreparedPacketImpl> batches) {
+    ChannelPipeline pipeline = connection.getChannel().pipeline();
+    stop(pipeline);
+    if (batches.isEmpty() || !pipeline.names().contains(Connections.HANDLER)) {
+      return;
+    }
+
+    pipeline.addBefore(Connections.HANDLER, LimboProtocol.CHUNK_STREAMER, new ChunkStreamer(connection, batches));
+  }
+
+  public static void stop(ChannelPipeline pipeline) {
+    if (pipeline.get(LimboProtocol.CHUNK_STREAMER) != null) {
+      pipeline.remove(LimboProtocol.CHUNK_STREAMER);
+    }
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) {
+    this.ctx = ctx;
+    this.lastProgress = System.nanoTime();
+    int timeout = Settings.IMP.MAIN.CHUNK_STREAMING_TIMEOUT;
+    if (timeout > 0) {
+      this.scheduleTimeout(TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    this.writeBatches();
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) {
+    if (this.timeout != null) {
+      this.timeout.cancel(false);
+    }
+
+    for (int i = this.next; i < this.batches.size(); ++i) {
+      this.batches.get(i).release();
+    }
+    this.next = this.batches.size();
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+    if (ctx.channel().isWritable()) {
+      this.lastProgress = System.nanoTime();
+    }
+
+    this.writeBatches();
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  private void writeBatches() {
+    // The player has left the Limbo, the rest of the chunks isn't needed anymore.
+    if (this.connection.getState() != LimboProtocol.getLimboRegistry() || this.ctx.pipeline().get(LimboProtocol.PREPARED_ENCODER) == null) {
+      this.ctx.pipeline().remove(this);
+      return;
+    }
+
+    boolean written = false;
+    while (this.next < this.batches.size() && this.ctx.channel().isWritable()) {
+      PreparedPacketImpl batch = this.batches.get(this.next++);
+      this.connection.delayedWrite(batch);
+      batch.release();
+      written = true;
+    }
+
+    if (written) {
+      this.lastProgress = System.nanoTime();
+      this.connection.flush();
+    }
+
+    if (this.next == this.batches.size()) {
+      this.ctx.pipeline().remove(this);
+    }
+  }
+
+  private void scheduleTimeout(long delay) {
+    this.timeout = this.ctx.executor().schedule(this::onTimeout, delay, TimeUnit.NANOSECONDS);
+  }
+
+  private void onTimeout() {
+    if (this.next >= this.batches.size()) {
+      return;
+    }
+
+    long timeout = TimeUnit.MILLISECONDS.toNanos(Settings.IMP.MAIN.CHUNK_STREAMING_TIMEOUT);
+    long idle = System.nanoTime() - this.lastProgress;
+    if (idle < timeout) {
+      // The client is still receiving the chunks, so only the time since the last progress is counted.
+      this.scheduleTimeout(timeout - idle);
+      return;
+    }
+
+    if (Settings.IMP.MAIN.LOGGING_ENABLED) {
+      LimboAPI.getLogger().info("{} stopped receiving the Limbo chunks, disconnecting.", this.connection.getRemoteAddress());
+    }
+
+    this.connection.close();
+  }
+}
@@ -17,6 +17,7 @@
 
 package net.elytrium.limboapi.server;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.mojang.brigadier.tree.RootCommandNode;
@@ -27,6 +28,7 @@ import com.velocitypowered.api.command.SimpleCommand;
 import com.velocitypowered.api.network.ProtocolVersion;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.util.GameProfile;
 import com.velocitypowered.proxy.command.registrar.BrigadierCommandRegistrar;
 import com.velocitypowered.proxy.command.registrar.CommandRegistrar;
 import com.velocitypowered.proxy.command.registrar.RawCommandRegistrar;
@@ -52,13 +54,22 @@ import io.netty.channel.ChannelPipeline;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import java.lang.reflect.Field;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import net.elytrium.java.commons.reflection.ReflectionException;
 import net.elytrium.limboapi.LimboAPI;
 import net.elytrium.limboapi.Settings;
@@ -70,13 +81,17 @@ import net.elytrium.limboapi.api.chunk.VirtualWorld;
 import net.elytrium.limboapi.api.command.LimboCommandMeta;
 import net.elytrium.limboapi.api.player.GameMode;
 import net.elytrium.limboapi.api.protocol.PreparedPacket;
+import net.elytrium.limboapi.injection.packet.PacketTemplate;
+import net.elytrium.limboapi.injection.packet.PreparedBufferPool;
 import net.elytrium.limboapi.injection.packet.PreparedPacketEncoder;
+import net.elytrium.limboapi.injection.packet.PreparedPacketImpl;
 import net.elytrium.limboapi.material.Biome;
 import net.elytrium.limboapi.protocol.LimboProtocol;
 import net.elytrium.limboapi.protocol.packet.DefaultSpawnPosition;
 import net.elytrium.limboapi.protocol.packet.PlayerPositionAndLook;
 import net.elytrium.limboapi.protocol.packet.UpdateViewPosition;
 import net.elytrium.limboapi.protocol.packet.world.ChunkData;
+import net.elytrium.limboapi.protocol.packet.world.MapChunkBulk;
 
 public class LimboImpl implements Limbo {
 
@@ -84,9 +99,27 @@ public class LimboImpl implements Limbo {
   private static final Field currentDimensionData;
   private static final Field rootNode;
 
+  private static final PacketTemplate.Slot<UUID> PLAYER_UUID = PacketTemplate.uuidSlot(0);
+  private static final PacketTemplate.Slot<String> PLAYER_NAME = PacketTemplate.stringSlot(1);
+  private static final PacketTemplate.Slot<List<GameProfile.Property>> PLAYER_PROPERTIES = PacketTemplate.propertiesSlot(2);
+  private static final PacketTemplate ADD_PLAYER = new PacketTemplate(
+      LimboProtocol.getLimboRegistry().clientbound,
+      version -> new PlayerListItem(
+          PlayerListItem.ADD_PLAYER,
+          List.of(
+              new PlayerListItem.Item(PLAYER_UUID.getSentinel())
+                  .setName(PLAYER_NAME.getSentinel())
+                  .setGameMode(GameMode.ADVENTURE.getId())
+                  .setProperties(PLAYER_PROPERTIES.getSentinel())
+          )
+      ),
+      PLAYER_UUID, PLAYER_NAME, PLAYER_PROPERTIES
+  );
+
   private final LimboAPI plugin;
   private final VirtualWorld world;
-  private final Map<Class<? extends LimboSessionHandler>, PreparedPacket> brandMessages = new HashMap<>();
+  // Replaced by setName, so the messages are retained while they're written.
+  private final Map<Class<? extends LimboSessionHandler>, PreparedPacketImpl> brandMessages = new ConcurrentHashMap<>();
 
   private final RootCommandNode<CommandSource> commandNode = new RootCommandNode<>();
   private final ReadWriteLock lock = new ReentrantReadWriteLock();
@@ -100,13 +133,10 @@ public class LimboImpl implements Limbo {
   private String limboName;
 
   private Integer readTimeout;
+  private int viewDistance = Math.max(2, Math.min(32, Settings.IMP.MAIN.VIEW_DISTANCE));
 
-  private PreparedPacket joinPackets;
-  private PreparedPacket fastRejoinPackets;
-  private PreparedPacket safeRejoinPackets;
-  private PreparedPacket postJoinPackets;
-  private PreparedPacket chunks;
-  private PreparedPacket spawnPosition;
+  // Replaced at once by every refresh, the old packets are released after the last player who has read them was written to.
+  private final AtomicReference<SpawnPackets> spawnPackets = new AtomicReference<>();
 
   static {
     try {
@@ -136,29 +166,26 @@ public class LimboImpl implements Limbo {
     JoinGame joinGame = this.createJoinGamePacket(false);
     JoinGame joinGameModern = this.createJoinGamePacket(true);
 
-    this.joinPackets = this.plugin.createPreparedPacket()
+    PreparedPacket joinPackets = this.plugin.createPreparedPacket()
         .prepare(legacyJoinGame, ProtocolVersion.MINIMUM_VERSION, ProtocolVersion.MINECRAFT_1_15_2)
         .prepare(joinGame, ProtocolVersion.MINECRAFT_1_16, ProtocolVersion.MINECRAFT_1_18)
         .prepare(joinGameModern, ProtocolVersion.MINECRAFT_1_18_2);
 
-    this.fastRejoinPackets = this.plugin.createPreparedPacket();
+    PreparedPacket fastRejoinPackets = this.plugin.createPreparedPacket();
     this.createFastClientServerSwitch(legacyJoinGame, ProtocolVersion.MINECRAFT_1_7_2)
-        .forEach(minecraftPacket -> this.fastRejoinPackets.prepare(minecraftPacket, ProtocolVersion.MINIMUM_VERSION, ProtocolVersion.MINECRAFT_1_15_2));
+        .forEach(minecraftPacket -> fastRejoinPackets.prepare(minecraftPacket, ProtocolVersion.MINIMUM_VERSION, ProtocolVersion.MINECRAFT_1_15_2));
     this.createFastClientServerSwitch(joinGame, ProtocolVersion.MINECRAFT_1_16)
-        .forEach(minecraftPacket -> this.fastRejoinPackets.prepare(minecraftPacket, ProtocolVersion.MINECRAFT_1_16, ProtocolVersion.MINECRAFT_1_18));
+        .forEach(minecraftPacket -> fastRejoinPackets.prepare(minecraftPacket, ProtocolVersion.MINECRAFT_1_16, ProtocolVersion.MINECRAFT_1_18));
     this.createFastClientServerSwitch(joinGameModern, ProtocolVersion.MINECRAFT_1_18_2)
-        .forEach(minecraftPacket -> this.fastRejoinPackets.prepare(minecraftPacket, ProtocolVersion.MINECRAFT_1_18_2));
+        .forEach(minecraftPacket -> fastRejoinPackets.prepare(minecraftPacket, ProtocolVersion.MINECRAFT_1_18_2));
 
-    this.postJoinPackets = this.plugin.createPreparedPacket()
+    PreparedPacket postJoinPackets = this.plugin.createPreparedPacket()
         .prepare(this.createAvailableCommandsPacket(), ProtocolVersion.MINECRAFT_1_13)
         .prepare(this.createDefaultSpawnPositionPacket());
 
-    this.safeRejoinPackets = this.plugin.createPreparedPacket().prepare(this.createSafeClientServerSwitch(legacyJoinGame));
+    PreparedPacket safeRejoinPackets = this.plugin.createPreparedPacket().prepare(this.createSafeClientServerSwitch(legacyJoinGame));
 
-    List<ChunkData> chunkPackets = this.createChunksPackets();
-    this.chunks = chunkPackets.size() == 0 ? null : this.plugin.createPreparedPacket().prepare(chunkPackets);
-
-    this.spawnPosition = this.plugin.createPreparedPacket()
+    PreparedPacket spawnPosition = this.plugin.createPreparedPacket()
         .prepare(
             this.createPlayerPosAndLook(
                 this.world.getSpawnX(), this.world.getSpawnY(), this.world.getSpawnZ(), this.world.getYaw(), this.world.getPitch()
@@ -167,6 +194,123 @@ public class LimboImpl implements Limbo {
             this.createUpdateViewPosition((int) this.world.getSpawnX(), (int) this.world.getSpawnZ()),
             ProtocolVersion.MINECRAFT_1_14
         );
+
+    List<ChunkData> chunkPackets = this.createChunksPackets();
+    PreparedPacket respawnPackets = this.plugin.createPreparedPacket().append(spawnPosition);
+    String name = this.world.getDimension().name();
+    List<PreparedPacketImpl> chunkBatches = new ArrayList<>();
+    List<Path> cacheFiles = new ArrayList<>();
+    int threshold = Settings.IMP.MAIN.CHUNK_STREAMING_THRESHOLD;
+    if (threshold != -1 && chunkPackets.size() > threshold) {
+      // Big worlds are streamed separately from the spawn bundle. All the chunks are prepared (and cached) at once, then split into the batches.
+      int batchSize = Math.max(1, Settings.IMP.MAIN.CHUNK_STREAMING_BATCH_SIZE);
+      PreparedPacket chunks = this.prepareChunkPackets(chunkPackets, name, cacheFiles);
+      chunkBatches.addAll(((PreparedPacketImpl) chunks).split((chunkPackets.size() + batchSize - 1) / batchSize));
+      chunks.release();
+    } else if (chunkPackets.size() != 0) {
+      PreparedPacket chunks = this.prepareChunkPackets(chunkPackets, name, cacheFiles);
+      respawnPackets.append(chunks);
+      chunks.release();
+    }
+
+    // The whole static spawn sequence is joined into one buffer per version, so it's sent with a single write.
+    SpawnPackets spawnPackets = new SpawnPackets(
+        this.createSpawnBundle(joinPackets, postJoinPackets, respawnPackets),
+        this.createSpawnBundle(fastRejoinPackets, postJoinPackets, respawnPackets),
+        this.createSpawnBundle(safeRejoinPackets, postJoinPackets, respawnPackets),
+        respawnPackets.build(),
+        chunkBatches,
+        cacheFiles
+    );
+    SpawnPackets oldSpawnPackets = this.spawnPackets.getAndSet(spawnPackets);
+
+    // The bundles hold their own references to the packets.
+    joinPackets.release();
+    fastRejoinPackets.release();
+    safeRejoinPackets.release();
+    postJoinPackets.release();
+    spawnPosition.release();
+
+    // Purges the buffer pool once the old packets are released, or later if they're still being written to someone.
+    if (oldSpawnPackets != null) {
+      oldSpawnPackets.release();
+    }
+
+    if (Settings.IMP.MAIN.LOGGING_ENABLED) {
+      LimboAPI.getLogger().info(
+          "Prepared the Limbo packets, deduplication ratio: {}, lazily prepared versions: {} KiB",
+          String.format("%.2f", PreparedBufferPool.getDeduplicationRatio()), this.plugin.getVersionTracker().getUsedMemory() / 1024
+      );
+    }
+  }
+
+  private PreparedPacket prepareChunkPackets(List<ChunkData> chunkPackets, String name, List<Path> cacheFiles) {
+    // 1.7 and 1.8 clients receive the chunks in bulk packets.
+    PreparedPacket legacyChunks = this.plugin.prepareCachedPackets(
+        MapChunkBulk.group(chunkPackets), name + "-bulk", ProtocolVersion.MINIMUM_VERSION, ProtocolVersion.MINECRAFT_1_8, cacheFiles
+    );
+    PreparedPacket chunks = this.plugin.prepareCachedPackets(
+        chunkPackets, name, ProtocolVersion.MINECRAFT_1_9, ProtocolVersion.MAXIMUM_VERSION, cacheFiles
+    );
+    PreparedPacket result = this.plugin.createPreparedPacket().append(legacyChunks).append(chunks);
+    legacyChunks.release();
+    chunks.release();
+    return result;
+  }
+
+  // The packets can't be released by a refresh until the returned SpawnPackets are released.
+  private SpawnPackets acquireSpawnPackets() {
+    while (true) {
+      SpawnPackets spawnPackets = this.spawnPackets.get();
+      if (spawnPackets.retain()) {
+        return spawnPackets;
+      }
+    }
+  }
+
+  // Prepares the cold lazy versions off the event loop, as the preparation under the packet lock would stall every player of that event loop.
+  private CompletableFuture<Void> warmSpawnPackets(ProtocolVersion version, Function<SpawnPackets, PreparedPacket> bundle) {
+    SpawnPackets spawnPackets = this.acquireSpawnPackets();
+    List<PreparedPacketImpl> coldPackets = new ArrayList<>();
+    PreparedPacketImpl bundlePacket = (PreparedPacketImpl) bundle.apply(spawnPackets);
+    if (!bundlePacket.isPrepared(version)) {
+      coldPackets.add(bundlePacket);
+    }
+
+    for (PreparedPacketImpl chunkBatch : spawnPackets.chunkBatches) {
+      if (!chunkBatch.isPrepared(version)) {
+        coldPackets.add(chunkBatch);
+      }
+    }
+
+    if (coldPackets.isEmpty()) {
+      spawnPackets.release();
+      return CompletableFuture.completedFuture(null);
+    }
+
+    Executor executor = LimboAPI.getPreparationExecutor();
+    if (executor == null) {
+      executor = ForkJoinPool.commonPool();
+    }
+
+    return CompletableFuture.runAsync(() -> coldPackets.forEach(packet -> packet.warmVersion(version)), executor)
+        .handle((result, throwable) -> {
+          spawnPackets.release();
+          if (throwable != null) {
+            // The version will be prepared on the event loop then.
+            LimboAPI.getLogger().error("Failed to prepare the spawn packets for {}", version, throwable);
+          }
+
+          return null;
+        });
+  }
+
+  private PreparedPacket createSpawnBundle(PreparedPacket joinPackets, PreparedPacket postJoinPackets, PreparedPacket respawnPackets) {
+    return this.plugin.createPreparedPacket()
+        .append(joinPackets)
+        .append(postJoinPackets)
+        .append(respawnPackets)
+        .build();
   }
 
   @Override
@@ -178,7 +322,19 @@ public class LimboImpl implements Limbo {
       this.limboName = handlerClass.getSimpleName();
     }
 
-    connection.eventLoop().execute(() -> {
+    this.plugin.getVersionTracker().onJoin(player.getProtocolVersion());
+    Function<SpawnPackets, PreparedPacket> bundle;
+    if (this.plugin.isLimboJoined(player)) {
+      if (connection.getType() == ConnectionTypes.LEGACY_FORGE) {
+        bundle = spawnPackets -> spawnPackets.safeRejoinPackets;
+      } else {
+        bundle = spawnPackets -> spawnPackets.fastRejoinPackets;
+      }
+    } else {
+      bundle = spawnPackets -> spawnPackets.joinPackets;
+    }
+
+    this.warmSpawnPackets(player.getProtocolVersion(), bundle).thenRun(() -> connection.eventLoop().execute(() -> {
       ChannelPipeline pipeline = connection.getChannel().pipeline();
 
       if (Settings.IMP.MAIN.LOGGING_ENABLED) {
@@ -213,69 +369,85 @@ public class LimboImpl implements Limbo {
         }
       }
 
-      if (this.plugin.isLimboJoined(player)) {
-        if (connection.getType() == ConnectionTypes.LEGACY_FORGE) {
-          connection.delayedWrite(this.safeRejoinPackets);
+      // The writes below are done on the event loop, so the encoder retains the buffers before the packets are released.
+      SpawnPackets spawnPackets = this.acquireSpawnPackets();
+      try {
+        if (this.plugin.isLimboJoined(player)) {
+          if (connection.getType() == ConnectionTypes.LEGACY_FORGE) {
+            connection.delayedWrite(spawnPackets.safeRejoinPackets);
+          } else {
+            connection.delayedWrite(spawnPackets.fastRejoinPackets);
+          }
         } else {
-          connection.delayedWrite(this.fastRejoinPackets);
+          connection.delayedWrite(spawnPackets.joinPackets);
         }
-      } else {
-        connection.delayedWrite(this.joinPackets);
-      }
 
-      connection.delayedWrite(
-          new PlayerListItem(
-              PlayerListItem.ADD_PLAYER,
-              List.of(
-                  new PlayerListItem.Item(player.getUniqueId())
-                      .setName(player.getUsername())
-                      .setGameMode(GameMode.ADVENTURE.getId())
-                      .setProperties(player.getGameProfileProperties())
-              )
-          )
-      );
-      connection.delayedWrite(this.postJoinPackets);
-      connection.delayedWrite(this.getBrandMessage(handlerClass));
-
-      this.plugin.setLimboJoined(player);
-
-      LimboSessionHandlerImpl sessionHandler = new LimboSessionHandlerImpl(
-          this.plugin,
-          player,
-          handler,
-          connection.getSessionHandler(),
-          previousServer,
-          () -> this.limboName
-      );
-      connection.setSessionHandler(sessionHandler);
+        // The spawn bundle above already contains the AvailableCommands, DefaultSpawnPosition, PlayerPositionAndLook and chunks packets.
+        ADD_PLAYER.delayedWrite(connection, player.getUniqueId(), player.getUsername(), player.getGameProfileProperties());
+        PreparedPacketImpl brandMessage = this.acquireBrandMessage(handlerClass);
+        try {
+          connection.delayedWrite(brandMessage);
+        } finally {
+          brandMessage.release();
+        }
 
-      connection.flush();
+        this.plugin.setLimboJoined(player);
 
-      this.respawnPlayer(player);
-      sessionHandler.onSpawn(this, new LimboPlayerImpl(this.plugin, this, player));
-    });
+        LimboSessionHandlerImpl sessionHandler = new LimboSessionHandlerImpl(
+            this.plugin,
+            player,
+            handler,
+            connection.getSessionHandler(),
+            previousServer,
+            () -> this.limboName
+        );
+        connection.setSessionHandler(sessionHandler);
+
+        connection.flush();
+        ChunkStreamer.start(connection, spawnPackets.chunkBatches);
+
+        sessionHandler.onSpawn(this, new LimboPlayerImpl(this.plugin, this, player));
+      } finally {
+        spawnPackets.release();
+      }
+    }));
   }
 
   @Override
   public void respawnPlayer(Player player) {
     MinecraftConnection connection = ((ConnectedPlayer) player).getConnection();
 
-    connection.delayedWrite(this.spawnPosition);
-    if (this.chunks != null) {
-      connection.delayedWrite(this.chunks);
-    }
+    Runnable respawn = () -> {
+      SpawnPackets spawnPackets = this.acquireSpawnPackets();
+      try {
+        connection.write(spawnPackets.respawnPackets);
+        ChunkStreamer.start(connection, spawnPackets.chunkBatches);
+      } finally {
+        spawnPackets.release();
+      }
+    };
 
-    connection.flush();
+    CompletableFuture<Void> warmup = this.warmSpawnPackets(player.getProtocolVersion(), spawnPackets -> spawnPackets.respawnPackets);
+    if (warmup.isDone() && connection.eventLoop().inEventLoop()) {
+      // Nothing to prepare, so the packets are written at once, before anything the caller writes after this call.
+      respawn.run();
+    } else {
+      warmup.thenRun(() -> connection.eventLoop().execute(respawn));
+    }
   }
 
   @Override
   public Limbo setName(String name) {
     this.limboName = name;
-    if (!this.brandMessages.isEmpty()) {
-      this.brandMessages.forEach((handlerClass, packet) ->
-          this.brandMessages.replace(handlerClass, packet, this.plugin.createPreparedPacket().prepare(this::createBrandMessage))
-      );
-    }
+    this.brandMessages.forEach((handlerClass, packet) -> {
+      // The old message is released after it's replaced, so the writers that have retained it are still able to write it.
+      PreparedPacketImpl newPacket = this.createBrandMessagePacket();
+      if (this.brandMessages.replace(handlerClass, packet, newPacket)) {
+        packet.release();
+      } else {
+        newPacket.release();
+      }
+    });
 
     return this;
   }
@@ -287,6 +459,16 @@ public class LimboImpl implements Limbo {
     return this;
   }
 
+  @Override
+  public Limbo setViewDistance(int viewDistance) {
+    // The clients don't accept the other values.
+    Preconditions.checkArgument(viewDistance >= 2 && viewDistance <= 32, "The view distance should be from 2 to 32, got %s", viewDistance);
+    this.viewDistance = viewDistance;
+    this.refresh();
+
+    return this;
+  }
+
   @Override
   public Limbo registerCommand(LimboCommandMeta commandMeta) {
     return this.registerCommand(commandMeta, (SimpleCommand) invocation -> {
@@ -346,7 +528,7 @@ public class LimboImpl implements Limbo {
     }
 
     joinGame.setLevelType("flat");
-    joinGame.setViewDistance(10);
+    joinGame.setViewDistance(this.viewDistance);
     joinGame.setSimulationDistance(0);
     joinGame.setReducedDebugInfo(true);
     joinGame.setIsHardcore(true);
@@ -392,14 +574,47 @@ public class LimboImpl implements Limbo {
   }
 
   private List<ChunkData> createChunksPackets() {
-    List<ChunkData> packets = new ArrayList<>();
-    for (VirtualChunk chunk : this.world.getChunks()) {
-      packets.add(this.createChunkData(chunk, this.world.getDimension(), (int) this.world.getSpawnY()));
+    List<VirtualChunk> chunks = this.getVisibleChunks();
+    List<ChunkData> packets = new ArrayList<>(chunks.size());
+    Executor executor = LimboAPI.getPreparationExecutor();
+    if (executor == null || chunks.size() < 2) {
+      for (VirtualChunk chunk : chunks) {
+        packets.add(this.createChunkData(chunk, this.world.getDimension(), (int) this.world.getSpawnY()));
+      }
+
+      return packets;
+    }
+
+    List<CompletableFuture<ChunkData>> futures = new ArrayList<>(chunks.size());
+    for (VirtualChunk chunk : chunks) {
+      futures.add(CompletableFuture.supplyAsync(() -> this.createChunkData(chunk, this.world.getDimension(), (int) this.world.getSpawnY()), executor));
+    }
+
+    for (CompletableFuture<ChunkData> future : futures) {
+      packets.add(future.join());
     }
 
     return packets;
   }
 
+  // Chunks within the view distance, the nearest to the spawn first, so the client renders the spawn area before the rest.
+  private List<VirtualChunk> getVisibleChunks() {
+    int spawnX = (int) Math.floor(this.world.getSpawnX()) >> 4;
+    int spawnZ = (int) Math.floor(this.world.getSpawnZ()) >> 4;
+    List<VirtualChunk> chunks = new ArrayList<>(this.world.getChunkCount());
+    this.world.forEachChunk(chunk -> {
+      if (Math.max(Math.abs(chunk.getX() - spawnX), Math.abs(chunk.getZ() - spawnZ)) <= this.viewDistance) {
+        chunks.add(chunk);
+      }
+    });
+
+    chunks.sort(Comparator.<VirtualChunk>comparingInt(chunk -> Math.max(Math.abs(chunk.getX() - spawnX), Math.abs(chunk.getZ() - spawnZ)))
+        .thenComparingInt(chunk -> (chunk.getX() - spawnX) * (chunk.getX() - spawnX) + (chunk.getZ() - spawnZ) * (chunk.getZ() - spawnZ))
+        .thenComparingInt(VirtualChunk::getX)
+        .thenComparingInt(VirtualChunk::getZ));
+    return chunks;
+  }
+
   // From Velocity.
   private List<MinecraftPacket> createFastClientServerSwitch(JoinGame joinGame, ProtocolVersion version) {
     // In order to handle switching to another server, you will need to send two packets:
@@ -466,16 +681,20 @@ public class LimboImpl implements Limbo {
     return packets;
   }
 
-  private PreparedPacket getBrandMessage(Class<? extends LimboSessionHandler> handlerClass) {
-    if (this.brandMessages.containsKey(handlerClass)) {
-      return this.brandMessages.get(handlerClass);
-    } else {
-      PreparedPacket preparedPacket = this.plugin.createPreparedPacket().prepare(this::createBrandMessage);
-      this.brandMessages.put(handlerClass, preparedPacket);
-      return preparedPacket;
+  // The message can't be released by setName until the returned packet is released.
+  private PreparedPacketImpl acquireBrandMessage(Class<? extends LimboSessionHandler> handlerClass) {
+    while (true) {
+      PreparedPacketImpl packet = this.brandMessages.computeIfAbsent(handlerClass, key -> this.createBrandMessagePacket());
+      if (packet.tryRetain()) {
+        return packet;
+      }
     }
   }
 
+  private PreparedPacketImpl createBrandMessagePacket() {
+    return (PreparedPacketImpl) this.plugin.createPreparedPacket().prepare(this::createBrandMessage);
+  }
+
   private PluginMessage createBrandMessage(ProtocolVersion version) {
     String brand = "LimboAPI -> (" + this.limboName + ")";
     ByteBuf bufWithBrandString = Unpooled.buffer();
@@ -504,4 +723,50 @@ public class LimboImpl implements Limbo {
   public Integer getReadTimeout() {
     return this.readTimeout;
   }
+
+  private class SpawnPackets {
+
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final PreparedPacket joinPackets;
+    private final PreparedPacket fastRejoinPackets;
+    private final PreparedPacket safeRejoinPackets;
+    private final PreparedPacket respawnPackets;
+    private final List<PreparedPacketImpl> chunkBatches;
+    private final List<Path> cacheFiles;
+
+    private SpawnPackets(PreparedPacket joinPackets, PreparedPacket fastRejoinPackets, PreparedPacket safeRejoinPackets,
+        PreparedPacket respawnPackets, List<PreparedPacketImpl> chunkBatches, List<Path> cacheFiles) {
+      this.joinPackets = joinPackets;
+      this.fastRejoinPackets = fastRejoinPackets;
+      this.safeRejoinPackets = safeRejoinPackets;
+      this.respawnPackets = respawnPackets;
+      this.chunkBatches = chunkBatches;
+      this.cacheFiles = cacheFiles;
+    }
+
+    // Fails if the packets were already released by a refresh.
+    private boolean retain() {
+      int references;
+      do {
+        references = this.references.get();
+        if (references == 0) {
+          return false;
+        }
+      } while (!this.references.compareAndSet(references, references + 1));
+
+      return true;
+    }
+
+    private void release() {
+      if (this.references.decrementAndGet() == 0) {
+        this.joinPackets.release();
+        this.fastRejoinPackets.release();
+        this.safeRejoinPackets.release();
+        this.respawnPackets.release();
+        this.chunkBatches.forEach(PreparedPacket::release);
+        PreparedBufferPool.purge();
+        LimboImpl.this.plugin.releaseCachedFiles(this.cacheFiles);
+      }
+    }
+  }
 }
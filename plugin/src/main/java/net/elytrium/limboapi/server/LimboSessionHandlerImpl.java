@@ -35,6 +35,7 @@ import io.netty.handler.timeout.ReadTimeoutHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
@@ -44,6 +45,7 @@ import net.elytrium.limboapi.Settings;
 import net.elytrium.limboapi.api.LimboSessionHandler;
 import net.elytrium.limboapi.api.player.LimboPlayer;
 import net.elytrium.limboapi.injection.login.LoginListener;
+import net.elytrium.limboapi.injection.packet.PacketTemplate;
 import net.elytrium.limboapi.injection.packet.PreparedPacketEncoder;
 import net.elytrium.limboapi.protocol.LimboProtocol;
 import net.elytrium.limboapi.protocol.packet.Player;
@@ -55,6 +57,28 @@ public class LimboSessionHandlerImpl implements MinecraftSessionHandler {
 
   private static final Method teardown;
 
+  private static final PacketTemplate.Slot<Integer> KEEP_ALIVE_ID = PacketTemplate.intSlot(0);
+  private static final PacketTemplate KEEP_ALIVE = new PacketTemplate(
+      LimboProtocol.getLimboRegistry().clientbound,
+      version -> {
+        KeepAlive keepAlive = new KeepAlive();
+        keepAlive.setRandomId(KEEP_ALIVE_ID.getSentinel());
+        return keepAlive;
+      },
+      KEEP_ALIVE_ID
+  );
+  private static final PacketTemplate.Slot<UUID> PLAYER_UUID = PacketTemplate.uuidSlot(1);
+  private static final PacketTemplate.Slot<String> PLAYER_NAME = PacketTemplate.stringSlot(2);
+  private static final PacketTemplate.Slot<Integer> PLAYER_LATENCY = PacketTemplate.intSlot(3);
+  private static final PacketTemplate UPDATE_LATENCY = new PacketTemplate(
+      LimboProtocol.getLimboRegistry().clientbound,
+      version -> new PlayerListItem(
+          PlayerListItem.UPDATE_LATENCY,
+          List.of(new PlayerListItem.Item(PLAYER_UUID.getSentinel()).setName(PLAYER_NAME.getSentinel()).setLatency(PLAYER_LATENCY.getSentinel()))
+      ),
+      PLAYER_UUID, PLAYER_NAME, PLAYER_LATENCY
+  );
+
   private final LimboAPI plugin;
   private final ConnectedPlayer player;
   private final LimboSessionHandler callback;
@@ -98,13 +122,11 @@ public class LimboSessionHandlerImpl implements MinecraftSessionHandler {
     this.keepAliveTask = this.plugin.getServer().getScheduler().buildTask(this.plugin, () -> {
       MinecraftConnection connection = this.player.getConnection();
       if (this.keepAlivePending) {
-        connection.closeWith(this.plugin.getPackets().getTimeOut());
+        this.plugin.getPackets().closeWithTimeOut(connection);
         LimboAPI.getLogger().warn("{} was kicked due to keepalive timeout.", this.player);
       } else {
         this.keepAliveKey = ThreadLocalRandom.current().nextInt();
-        KeepAlive keepAlive = new KeepAlive();
-        keepAlive.setRandomId(this.keepAliveKey);
-        connection.write(keepAlive);
+        KEEP_ALIVE.write(connection, (int) this.keepAliveKey);
         this.keepAliveSentTime = System.currentTimeMillis();
         this.keepAlivePending = true;
       }
@@ -154,22 +176,17 @@ public class LimboSessionHandlerImpl implements MinecraftSessionHandler {
     MinecraftConnection connection = this.player.getConnection();
     if (this.keepAlivePending) {
       if (packet.getRandomId() != this.keepAliveKey) {
-        connection.closeWith(this.plugin.getPackets().getInvalidPing());
+        this.plugin.getPackets().closeWithInvalidPing(connection);
         LimboAPI.getLogger().warn("{} sent an invalid keepalive.", this.player);
         return false;
       } else {
         this.keepAlivePending = false;
         this.ping = (this.ping * 3 + (int) (System.currentTimeMillis() - this.keepAliveSentTime)) / 4;
-        connection.write(
-            new PlayerListItem(
-                PlayerListItem.UPDATE_LATENCY,
-                List.of(new PlayerListItem.Item(this.player.getUniqueId()).setLatency(this.ping))
-            )
-        );
+        UPDATE_LATENCY.write(connection, this.player.getUniqueId(), this.player.getUsername(), this.ping);
         return true;
       }
     } else {
-      connection.closeWith(this.plugin.getPackets().getInvalidPing());
+      this.plugin.getPackets().closeWithInvalidPing(connection);
       LimboAPI.getLogger().warn("{} sent an unexpected keepalive.", this.player);
       return false;
     }
@@ -215,7 +232,7 @@ public class LimboSessionHandlerImpl implements MinecraftSessionHandler {
   }
 
   private void kickTooBigPacket(String type, int length) {
-    this.player.getConnection().closeWith(this.plugin.getPackets().getTooBigPacket());
+    this.plugin.getPackets().closeWithTooBigPacket(this.player.getConnection());
     LimboAPI.getLogger().warn("{} sent too big packet. (type: {}, length: {})", this.player, type, length);
   }
 
@@ -46,6 +46,8 @@ public class SimpleBlock implements VirtualBlock {
   private static final EnumMap<ProtocolVersion, ShortObjectMap<Short>> modernIdsMap = new EnumMap<>(ProtocolVersion.class);
   private static final EnumMap<ProtocolVersion, ShortObjectMap<Short>> modernIdsFlattenMap = new EnumMap<>(ProtocolVersion.class);
   private static final HashMap<String, HashMap<Set<String>, Short>> modernStringMap = new HashMap<>();
+  // Shared instances of the modern block states, so the primitive id API doesn't create a block per call.
+  private static final SimpleBlock[] modernStates = new SimpleBlock[Short.MAX_VALUE + 1];
 
   @SuppressWarnings("unchecked")
   public static void init() {
@@ -91,6 +93,12 @@ public class SimpleBlock implements VirtualBlock {
     ), LinkedTreeMap.class);
 
     tempLegacyFlattenMap.forEach((k, v) -> legacyIdsFlattenMap.put(Short.valueOf(k), Short.valueOf(v)));
+
+    modernStates[AIR.getModernId()] = AIR;
+    for (String airId : new String[]{"minecraft:cave_air", "minecraft:void_air"}) {
+      short id = transformId(airId, (Set<String>) null);
+      modernStates[id] = air(id);
+    }
   }
 
   @SuppressWarnings("unchecked")
@@ -147,6 +155,18 @@ public class SimpleBlock implements VirtualBlock {
     return this.getFlattenId(version, Objects.requireNonNullElse(id, this.id));
   }
 
+  /**
+   * @return true if both versions map every modern id to the same network id.
+   */
+  public static boolean hasSameIds(ProtocolVersion first, ProtocolVersion second) {
+    boolean legacy = first.compareTo(ProtocolVersion.MINECRAFT_1_12_2) <= 0;
+    if (legacy != (second.compareTo(ProtocolVersion.MINECRAFT_1_12_2) <= 0) || !Objects.equals(modernIdsMap.get(first), modernIdsMap.get(second))) {
+      return false;
+    }
+
+    return legacy || Objects.equals(modernIdsFlattenMap.get(first), modernIdsFlattenMap.get(second));
+  }
+
   private short getFlattenId(ProtocolVersion version, Short id) {
     Short flattenId;
     if (version.compareTo(ProtocolVersion.MINECRAFT_1_12_2) <= 0) {
@@ -208,7 +228,24 @@ public class SimpleBlock implements VirtualBlock {
   }
 
   public static VirtualBlock fromModernId(String modernId, Map<String, String> properties) {
-    return solid(transformId(modernId, properties));
+    return fromModernId(transformId(modernId, properties));
+  }
+
+  /**
+   * @return The shared block of the modern state id, air states are air and every other state is solid.
+   */
+  @NonNull
+  public static SimpleBlock fromModernId(short id) {
+    if (id < 0) {
+      return solid(id);
+    }
+
+    SimpleBlock block = modernStates[id];
+    if (block == null) {
+      modernStates[id] = block = solid(id);
+    }
+
+    return block;
   }
 
   public static short transformId(String modernId, Map<String, String> properties) {
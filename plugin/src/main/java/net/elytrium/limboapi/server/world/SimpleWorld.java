@@ -17,12 +17,13 @@
 
 package net.elytrium.limboapi.server.world;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import java.util.HashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Function;
-import java.util.function.Supplier;
+import java.util.function.Consumer;
 import net.elytrium.limboapi.api.chunk.Dimension;
 import net.elytrium.limboapi.api.chunk.VirtualBiome;
 import net.elytrium.limboapi.api.chunk.VirtualBlock;
@@ -37,7 +38,7 @@ public class SimpleWorld implements VirtualWorld {
 
   @NonNull
   private final Dimension dimension;
-  private final Map<Long, SimpleChunk> chunks = new HashMap<>();
+  private final Long2ObjectMap<SimpleChunk> chunks = new Long2ObjectOpenHashMap<>();
 
   private final double spawnX;
   private final double spawnY;
@@ -70,10 +71,109 @@ public class SimpleWorld implements VirtualWorld {
     this.getChunkOrNew(x, z).setBlock(getChunkCoordinate(x), y, getChunkCoordinate(z), block);
   }
 
+  @Override
+  public void fill(int x1, int y1, int z1, int x2, int y2, int z2, @Nullable VirtualBlock block) {
+    int minX = Math.min(x1, x2);
+    int minY = Math.min(y1, y2);
+    int minZ = Math.min(z1, z2);
+    int maxX = Math.max(x1, x2);
+    int maxY = Math.max(y1, y2);
+    int maxZ = Math.max(z1, z2);
+    checkHeight(minY, maxY);
+    VirtualBlock fillBlock = block == null ? SimpleBlock.AIR : block;
+    boolean air = fillBlock.getModernId() == SimpleBlock.AIR.getModernId();
+    for (int chunkX = getChunkXZ(minX); chunkX <= getChunkXZ(maxX); ++chunkX) {
+      for (int chunkZ = getChunkXZ(minZ); chunkZ <= getChunkXZ(maxZ); ++chunkZ) {
+        // The missing chunks are already air, so they aren't created just to be filled with it.
+        SimpleChunk chunk = air ? this.chunks.get(getChunkIndex(chunkX, chunkZ)) : this.getChunkOrNew(chunkX << 4, chunkZ << 4);
+        if (chunk == null) {
+          continue;
+        }
+
+        int fromX = getChunkCoordinate(Math.max(minX, chunkX << 4));
+        int fromZ = getChunkCoordinate(Math.max(minZ, chunkZ << 4));
+        int toX = getChunkCoordinate(Math.min(maxX, (chunkX << 4) + 15));
+        int toZ = getChunkCoordinate(Math.min(maxZ, (chunkZ << 4) + 15));
+        chunk.fill(fromX, minY, fromZ, toX, maxY, toZ, fillBlock);
+      }
+    }
+  }
+
+  @Override
+  public void setBlocks(int[] positions, VirtualBlock[] blocks) {
+    Preconditions.checkArgument(positions.length == blocks.length * 3, "positions should contain 3 coordinates per block");
+    // Every position is checked before anything is changed, so an invalid position doesn't leave the blocks half set.
+    for (int i = 1; i < positions.length; i += 3) {
+      checkHeight(positions[i], positions[i]);
+    }
+
+    int i = 0;
+    while (i < blocks.length) {
+      i = this.getChunkOrNew(positions[i * 3], positions[i * 3 + 2]).setBlocks(positions, blocks, i, blocks.length);
+    }
+  }
+
+  @Override
+  public short[] getBlocks(int x1, int y1, int z1, int x2, int y2, int z2, short @Nullable [] modernIds) {
+    int minX = Math.min(x1, x2);
+    int minY = Math.min(y1, y2);
+    int minZ = Math.min(z1, z2);
+    int maxX = Math.max(x1, x2);
+    int maxY = Math.max(y1, y2);
+    int maxZ = Math.max(z1, z2);
+    checkHeight(minY, maxY);
+    int rowLength = maxX - minX + 1;
+    int layerLength = rowLength * (maxZ - minZ + 1);
+    int volume = layerLength * (maxY - minY + 1);
+    if (modernIds == null) {
+      modernIds = new short[volume];
+    } else {
+      Preconditions.checkArgument(modernIds.length >= volume, "modernIds should fit " + volume + " blocks");
+    }
+
+    for (int chunkX = getChunkXZ(minX); chunkX <= getChunkXZ(maxX); ++chunkX) {
+      for (int chunkZ = getChunkXZ(minZ); chunkZ <= getChunkXZ(maxZ); ++chunkZ) {
+        int fromX = Math.max(minX, chunkX << 4);
+        int fromZ = Math.max(minZ, chunkZ << 4);
+        int toX = Math.min(maxX, (chunkX << 4) + 15);
+        int toZ = Math.min(maxZ, (chunkZ << 4) + 15);
+        int offset = (fromZ - minZ) * rowLength + (fromX - minX);
+        SimpleChunk chunk = this.chunks.get(getChunkIndex(chunkX, chunkZ));
+        if (chunk == null) {
+          for (int y = minY; y <= maxY; ++y) {
+            for (int z = fromZ; z <= toZ; ++z) {
+              int index = offset + (y - minY) * layerLength + (z - fromZ) * rowLength;
+              Arrays.fill(modernIds, index, index + toX - fromX + 1, SimpleBlock.AIR.getModernId());
+            }
+          }
+        } else {
+          chunk.getBlocks(
+              getChunkCoordinate(fromX), minY, getChunkCoordinate(fromZ), getChunkCoordinate(toX), maxY, getChunkCoordinate(toZ),
+              modernIds, offset, rowLength, layerLength
+          );
+        }
+      }
+    }
+
+    return modernIds;
+  }
+
   @NonNull
   @Override
   public VirtualBlock getBlock(int x, int y, int z) {
-    return this.chunkAction(x, z, (c) -> c.getBlock(getChunkCoordinate(x), y, getChunkCoordinate(z)), () -> SimpleBlock.AIR);
+    SimpleChunk chunk = this.getChunk(x, z);
+    return chunk == null ? SimpleBlock.AIR : chunk.getBlock(getChunkCoordinate(x), y, getChunkCoordinate(z));
+  }
+
+  @Override
+  public void setBlockState(int x, int y, int z, short modernId) {
+    this.getChunkOrNew(x, z).setBlockState(getChunkCoordinate(x), y, getChunkCoordinate(z), modernId);
+  }
+
+  @Override
+  public short getBlockState(int x, int y, int z) {
+    SimpleChunk chunk = this.getChunk(x, z);
+    return chunk == null ? SimpleBlock.AIR.getModernId() : chunk.getBlockState(getChunkCoordinate(x), y, getChunkCoordinate(z));
   }
 
   @Override
@@ -88,12 +188,14 @@ public class SimpleWorld implements VirtualWorld {
 
   @Override
   public VirtualBiome getBiome(int x, int y, int z) {
-    return this.chunkAction(x, z, (c) -> c.getBiome(x, y, z), () -> Biome.PLAINS);
+    SimpleChunk chunk = this.getChunk(x, z);
+    return chunk == null ? Biome.PLAINS : chunk.getBiome(getChunkCoordinate(x), y, getChunkCoordinate(z));
   }
 
   @Override
   public byte getBlockLight(int x, int y, int z) {
-    return this.chunkAction(x, z, (c) -> c.getBlockLight(getChunkCoordinate(x), y, getChunkCoordinate(z)), () -> (byte) 0);
+    SimpleChunk chunk = this.getChunk(x, z);
+    return chunk == null ? 0 : chunk.getBlockLight(getChunkCoordinate(x), y, getChunkCoordinate(z));
   }
 
   @Override
@@ -106,6 +208,16 @@ public class SimpleWorld implements VirtualWorld {
     return ImmutableList.copyOf(this.chunks.values());
   }
 
+  @Override
+  public void forEachChunk(@NonNull Consumer<? super VirtualChunk> consumer) {
+    this.chunks.values().forEach(consumer);
+  }
+
+  @Override
+  public int getChunkCount() {
+    return this.chunks.size();
+  }
+
   @Nullable
   @Override
   public SimpleChunk getChunk(int x, int z) {
@@ -156,13 +268,8 @@ public class SimpleWorld implements VirtualWorld {
     return this.pitch;
   }
 
-  private <T> T chunkAction(int x, int z, Function<SimpleChunk, T> function, Supplier<T> ifNull) {
-    SimpleChunk chunk = this.getChunk(x, z);
-    if (chunk == null) {
-      return ifNull.get();
-    }
-
-    return function.apply(chunk);
+  private static void checkHeight(int minY, int maxY) {
+    Preconditions.checkArgument(minY >= 0 && maxY <= 255, "y should be between 0 and 255");
   }
 
   private static long getChunkIndex(int x, int z) {
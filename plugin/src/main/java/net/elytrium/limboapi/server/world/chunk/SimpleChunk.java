@@ -17,12 +17,12 @@
 
 package net.elytrium.limboapi.server.world.chunk;
 
-import java.util.Arrays;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import net.elytrium.limboapi.api.chunk.VirtualBiome;
 import net.elytrium.limboapi.api.chunk.VirtualBlock;
 import net.elytrium.limboapi.api.chunk.VirtualChunk;
+import net.elytrium.limboapi.api.chunk.data.BlockStorage;
 import net.elytrium.limboapi.api.chunk.data.ChunkSnapshot;
 import net.elytrium.limboapi.api.chunk.data.LightSection;
 import net.elytrium.limboapi.material.Biome;
@@ -40,19 +40,90 @@ public class SimpleChunk implements VirtualChunk {
 
   private final SimpleSection[] sections = new SimpleSection[16];
   private final LightSection[] light = new LightSection[18];
-  private final VirtualBiome[] biomes = new VirtualBiome[1024];
+  private final SimpleChunkBiomes biomes = new SimpleChunkBiomes(Biome.PLAINS);
+  private SimpleHeightmap heightmap = new SimpleHeightmap();
 
   public SimpleChunk(int posX, int posZ) {
     this.posX = posX;
     this.posZ = posZ;
     //Arrays.fill(this.light, LightSection.DEFAULT);
-    Arrays.fill(this.biomes, Biome.PLAINS);
   }
 
   @Override
   public void setBlock(int x, int y, int z, @Nullable VirtualBlock block) {
     SimpleSection section = this.getSection(y);
     section.setBlockAt(x, y & 15, z, block);
+    this.updateHeightmap(x, y, y, z, block == null ? SimpleBlock.AIR : block);
+  }
+
+  /**
+   * Sets every block between the two corners (inclusive), the heightmap is updated once per column.
+   */
+  public void fill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, @NonNull VirtualBlock block) {
+    for (int s = getSectionIndex(minY); s <= getSectionIndex(maxY); ++s) {
+      if (this.sections[s] == null && block.getModernId() == SimpleBlock.AIR.getModernId()) {
+        continue;
+      }
+
+      int fromY = Math.max(minY, s << 4) & 15;
+      int toY = Math.min(maxY, (s << 4) + 15) & 15;
+      this.getSection(s << 4).fill(minX, fromY, minZ, maxX, toY, maxZ, block);
+    }
+
+    for (int x = minX; x <= maxX; ++x) {
+      for (int z = minZ; z <= maxZ; ++z) {
+        this.updateHeightmap(x, minY, maxY, z, block);
+      }
+    }
+  }
+
+  /**
+   * Sets the blocks starting from {@code from} until one of them lies outside of this chunk.
+   *
+   * @param positions World coordinates of the blocks as x, y, z triples.
+   * @return Index of the first block that wasn't set.
+   */
+  public int setBlocks(int[] positions, VirtualBlock[] blocks, int from, int to) {
+    int updatedSections = 0;
+    int i = from;
+    for (; i < to; ++i) {
+      int x = positions[i * 3];
+      int y = positions[i * 3 + 1];
+      int z = positions[i * 3 + 2];
+      if (x >> 4 != this.posX || z >> 4 != this.posZ) {
+        break;
+      }
+
+      VirtualBlock block = blocks[i] == null ? SimpleBlock.AIR : blocks[i];
+      this.getSection(y).getStorage().set(x & 15, y & 15, z & 15, block);
+      updatedSections |= 1 << getSectionIndex(y);
+      this.updateHeightmap(x & 15, y, y, z & 15, block);
+    }
+
+    for (int s = 0; s < this.sections.length; ++s) {
+      if ((updatedSections & (1 << s)) != 0) {
+        this.sections[s].markUpdated();
+      }
+    }
+
+    return i;
+  }
+
+  /**
+   * Reads the modern ids of the blocks between the two corners (inclusive),
+   * {@code offset + (y - minY) * layerLength + (z - minZ) * rowLength + (x - minX)} being the index of every block.
+   */
+  public void getBlocks(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, short[] modernIds, int offset, int rowLength, int layerLength) {
+    for (int y = minY; y <= maxY; ++y) {
+      SimpleSection section = this.sections[getSectionIndex(y)];
+      BlockStorage storage = section == null ? null : section.getStorage();
+      for (int z = minZ; z <= maxZ; ++z) {
+        int index = offset + (y - minY) * layerLength + (z - minZ) * rowLength;
+        for (int x = minX; x <= maxX; ++x) {
+          modernIds[index++] = storage == null ? SimpleBlock.AIR.getModernId() : storage.get(x, y & 15, z).getModernId();
+        }
+      }
+    }
   }
 
   @NonNull
@@ -61,6 +132,17 @@ public class SimpleChunk implements VirtualChunk {
     return this.sectionAction(y, (s) -> s.getBlockAt(x, y & 15, z), () -> SimpleBlock.AIR);
   }
 
+  @Override
+  public void setBlockState(int x, int y, int z, short modernId) {
+    this.setBlock(x, y, z, SimpleBlock.fromModernId(modernId));
+  }
+
+  @Override
+  public short getBlockState(int x, int y, int z) {
+    SimpleSection section = this.sections[getSectionIndex(y)];
+    return section == null ? SimpleBlock.AIR.getModernId() : section.getBlockAt(x, y & 15, z).getModernId();
+  }
+
   @Override
   public void setBiome2d(int x, int z, @NonNull VirtualBiome biome) {
     for (int y = 0; y < 256; y += 4) {
@@ -70,13 +152,13 @@ public class SimpleChunk implements VirtualChunk {
 
   @Override
   public void setBiome3d(int x, int y, int z, @NonNull VirtualBiome biome) {
-    this.biomes[getBiomeIndex(x, y, z)] = biome;
+    this.biomes.set(getBiomeIndex(x, y, z), biome);
   }
 
   @NonNull
   @Override
   public VirtualBiome getBiome(int x, int y, int z) {
-    return this.biomes[getBiomeIndex(x, y, z)];
+    return this.biomes.get(getBiomeIndex(x, y, z));
   }
 
   @Override
@@ -134,7 +216,50 @@ public class SimpleChunk implements VirtualChunk {
       }
     }
 
-    return new SimpleChunkSnapshot(this.posX, this.posZ, full, sectionsSnapshot, lightSnapshot, Arrays.copyOf(this.biomes, this.biomes.length));
+    return new SimpleChunkSnapshot(
+        this.posX, this.posZ, full, sectionsSnapshot, lightSnapshot, this.biomes.copy(), this.heightmap.share()
+    );
+  }
+
+  private void updateHeightmap(int x, int minY, int maxY, int z, VirtualBlock block) {
+    int surface = this.heightmap.getSurface(x, z);
+    int motionBlocking = this.heightmap.getMotionBlocking(x, z);
+    int newSurface = this.updateHeight(x, minY, maxY, z, surface, !block.isAir(), false);
+    int newMotionBlocking = this.updateHeight(x, minY, maxY, z, motionBlocking, block.isMotionBlocking(), true);
+    if (newSurface != surface || newMotionBlocking != motionBlocking) {
+      if (this.heightmap.isShared()) {
+        this.heightmap = this.heightmap.copy();
+      }
+
+      this.heightmap.set(x, z, newSurface, newMotionBlocking);
+    }
+  }
+
+  private int updateHeight(int x, int minY, int maxY, int z, int height, boolean counts, boolean motionBlocking) {
+    if (counts) {
+      return Math.max(height, maxY + 1);
+    } else if (height > minY && height <= maxY + 1) {
+      return this.findHeight(x, minY - 1, z, motionBlocking);
+    } else {
+      return height;
+    }
+  }
+
+  private int findHeight(int x, int fromY, int z, boolean motionBlocking) {
+    for (int y = fromY; y >= 0; --y) {
+      SimpleSection section = this.sections[getSectionIndex(y)];
+      if (section == null) {
+        y &= ~15;
+        continue;
+      }
+
+      VirtualBlock block = section.getBlockAt(x, y & 15, z);
+      if (motionBlocking ? block.isMotionBlocking() : !block.isAir()) {
+        return y + 1;
+      }
+    }
+
+    return 0;
   }
 
   private SimpleSection getSection(int y) {
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.elytrium.limboapi.server.world.chunk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.elytrium.limboapi.api.chunk.VirtualBiome;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * 1024 biomes of a chunk in the 1.15+ 4x4x4 order.
+ * A uniform chunk keeps a single biome, otherwise a palette with short indices is used.
+ */
+public class SimpleChunkBiomes {
+
+  public static final int SIZE = 1024;
+
+  private List<VirtualBiome> palette;
+  private short[] indices;
+
+  public SimpleChunkBiomes(@NonNull VirtualBiome biome) {
+    this.palette = new ArrayList<>(1);
+    this.palette.add(biome);
+  }
+
+  private SimpleChunkBiomes(List<VirtualBiome> palette, short[] indices) {
+    this.palette = palette;
+    this.indices = indices;
+  }
+
+  public static SimpleChunkBiomes of(VirtualBiome[] biomes) {
+    SimpleChunkBiomes result = new SimpleChunkBiomes(biomes[0]);
+    for (int i = 1; i < biomes.length; ++i) {
+      result.set(i, biomes[i]);
+    }
+
+    return result;
+  }
+
+  public void set(int index, @NonNull VirtualBiome biome) {
+    if (this.indices == null) {
+      if (this.palette.get(0).equals(biome)) {
+        return;
+      }
+
+      this.indices = new short[SIZE];
+    }
+
+    int paletteIndex = this.palette.indexOf(biome);
+    if (paletteIndex == -1) {
+      paletteIndex = this.palette.size();
+      this.palette.add(biome);
+    }
+
+    this.indices[index] = (short) paletteIndex;
+  }
+
+  @NonNull
+  public VirtualBiome get(int index) {
+    return this.palette.get(this.indices == null ? 0 : this.indices[index]);
+  }
+
+  public boolean isUniform() {
+    return this.indices == null;
+  }
+
+  public int[] getIds() {
+    int[] ids = new int[SIZE];
+    if (this.indices == null) {
+      Arrays.fill(ids, this.palette.get(0).getId());
+    } else {
+      int[] paletteIds = new int[this.palette.size()];
+      for (int i = 0; i < paletteIds.length; ++i) {
+        paletteIds[i] = this.palette.get(i).getId();
+      }
+      for (int i = 0; i < SIZE; ++i) {
+        ids[i] = paletteIds[this.indices[i]];
+      }
+    }
+
+    return ids;
+  }
+
+  public VirtualBiome[] toArray() {
+    VirtualBiome[] biomes = new VirtualBiome[SIZE];
+    for (int i = 0; i < SIZE; ++i) {
+      biomes[i] = this.get(i);
+    }
+
+    return biomes;
+  }
+
+  public SimpleChunkBiomes copy() {
+    return new SimpleChunkBiomes(new ArrayList<>(this.palette), this.indices == null ? null : Arrays.copyOf(this.indices, SIZE));
+  }
+}
@@ -30,15 +30,23 @@ public class SimpleChunkSnapshot implements ChunkSnapshot {
   private final boolean fullChunk;
   private final SimpleSection[] sections;
   private final LightSection[] light;
-  private final VirtualBiome[] biomes;
+  private final SimpleChunkBiomes biomes;
+  private VirtualBiome[] biomeArray;
+  private SimpleHeightmap heightmap;
 
   public SimpleChunkSnapshot(int posX, int posZ, boolean fullChunk, SimpleSection[] sections, LightSection[] light, VirtualBiome[] biomes) {
+    this(posX, posZ, fullChunk, sections, light, SimpleChunkBiomes.of(biomes), null);
+  }
+
+  public SimpleChunkSnapshot(int posX, int posZ, boolean fullChunk, SimpleSection[] sections, LightSection[] light, SimpleChunkBiomes biomes,
+      SimpleHeightmap heightmap) {
     this.posX = posX;
     this.posZ = posZ;
     this.fullChunk = fullChunk;
     this.sections = sections;
     this.light = light;
     this.biomes = biomes;
+    this.heightmap = heightmap;
   }
 
   @Override
@@ -74,6 +82,22 @@ public class SimpleChunkSnapshot implements ChunkSnapshot {
 
   @Override
   public VirtualBiome[] getBiomes() {
+    if (this.biomeArray == null) {
+      this.biomeArray = this.biomes.toArray();
+    }
+
+    return this.biomeArray;
+  }
+
+  public SimpleChunkBiomes getChunkBiomes() {
     return this.biomes;
   }
+
+  public SimpleHeightmap getHeightmap() {
+    if (this.heightmap == null) {
+      this.heightmap = SimpleHeightmap.of(this).share();
+    }
+
+    return this.heightmap;
+  }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2021 - 2022 Elytrium
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.elytrium.limboapi.server.world.chunk;
+
+import com.velocitypowered.proxy.protocol.ProtocolUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Arrays;
+import net.elytrium.limboapi.api.chunk.VirtualBlock;
+import net.elytrium.limboapi.api.chunk.data.BlockSection;
+import net.elytrium.limboapi.api.chunk.data.ChunkSnapshot;
+import net.elytrium.limboapi.api.chunk.util.CompactStorage;
+import net.elytrium.limboapi.mcprotocollib.BitStorage116;
+import net.elytrium.limboapi.mcprotocollib.BitStorage19;
+import net.kyori.adventure.nbt.CompoundBinaryTag;
+
+/**
+ * MOTION_BLOCKING and WORLD_SURFACE heights of a chunk (1.14+), with the encoded NBT cached until the heights change.
+ * Instances handed to snapshots are shared and should not be modified, use {@link #copy()} instead.
+ */
+public class SimpleHeightmap {
+
+  private static final int COLUMNS = 16 * 16;
+
+  private final short[] surface;
+  private final short[] motionBlocking;
+  private volatile boolean shared;
+  private volatile byte[] encoded114;
+  private volatile byte[] encoded116;
+
+  public SimpleHeightmap() {
+    this(new short[COLUMNS], new short[COLUMNS]);
+  }
+
+  private SimpleHeightmap(short[] surface, short[] motionBlocking) {
+    this.surface = surface;
+    this.motionBlocking = motionBlocking;
+  }
+
+  public static SimpleHeightmap of(ChunkSnapshot chunk) {
+    SimpleHeightmap heightmap = new SimpleHeightmap();
+    BlockSection[] sections = chunk.getSections();
+    for (int x = 0; x < 16; ++x) {
+      for (int z = 0; z < 16; ++z) {
+        int column = getColumn(x, z);
+        for (int y = (sections.length << 4) - 1; y >= 0 && heightmap.motionBlocking[column] == 0; --y) {
+          BlockSection section = sections[y >> 4];
+          if (section == null) {
+            y &= ~15;
+            continue;
+          }
+
+          VirtualBlock block = section.getBlockAt(x, y & 15, z);
+          if (heightmap.surface[column] == 0 && !block.isAir()) {
+            heightmap.surface[column] = (short) (y + 1);
+          }
+          if (block.isMotionBlocking()) {
+            heightmap.motionBlocking[column] = (short) (y + 1);
+          }
+        }
+      }
+    }
+
+    return heightmap;
+  }
+
+  public int getSurface(int x, int z) {
+    return this.surface[getColumn(x, z)];
+  }
+
+  public int getMotionBlocking(int x, int z) {
+    return this.motionBlocking[getColumn(x, z)];
+  }
+
+  public void set(int x, int z, int surface, int motionBlocking) {
+    int column = getColumn(x, z);
+    this.surface[column] = (short) surface;
+    this.motionBlocking[column] = (short) motionBlocking;
+    this.encoded114 = null;
+    this.encoded116 = null;
+  }
+
+  public boolean isShared() {
+    return this.shared;
+  }
+
+  public SimpleHeightmap share() {
+    this.shared = true;
+    return this;
+  }
+
+  public SimpleHeightmap copy() {
+    SimpleHeightmap heightmap = new SimpleHeightmap(
+        Arrays.copyOf(this.surface, COLUMNS),
+        Arrays.copyOf(this.motionBlocking, COLUMNS)
+    );
+    heightmap.encoded114 = this.encoded114;
+    heightmap.encoded116 = this.encoded116;
+    return heightmap;
+  }
+
+  /**
+   * @return The heightmap compound tag, encoded the same way as {@link ProtocolUtils#writeCompoundTag}.
+   */
+  public byte[] getEncoded(boolean pre116) {
+    byte[] encoded = pre116 ? this.encoded114 : this.encoded116;
+    if (encoded == null) {
+      encoded = this.encode(pre116);
+      if (pre116) {
+        this.encoded114 = encoded;
+      } else {
+        this.encoded116 = encoded;
+      }
+    }
+
+    return encoded;
+  }
+
+  private byte[] encode(boolean pre116) {
+    CompactStorage surface = pre116 ? new BitStorage19(9, COLUMNS) : new BitStorage116(9, COLUMNS);
+    CompactStorage motionBlocking = pre116 ? new BitStorage19(9, COLUMNS) : new BitStorage116(9, COLUMNS);
+    for (int column = 0; column < COLUMNS; ++column) {
+      surface.set(column, this.surface[column]);
+      motionBlocking.set(column, this.motionBlocking[column]);
+    }
+
+    CompoundBinaryTag tag = CompoundBinaryTag.builder()
+        .putLongArray("MOTION_BLOCKING", motionBlocking.getData())
+        .putLongArray("WORLD_SURFACE", surface.getData())
+        .build();
+    ByteBuf buf = Unpooled.buffer();
+    try {
+      ProtocolUtils.writeCompoundTag(buf, tag);
+      byte[] encoded = new byte[buf.readableBytes()];
+      buf.readBytes(encoded);
+      return encoded;
+    } finally {
+      buf.release();
+    }
+  }
+
+  private static int getColumn(int x, int z) {
+    return x + (z << 4);
+  }
+}
@@ -24,6 +24,7 @@ import net.elytrium.limboapi.api.chunk.data.BlockSection;
 import net.elytrium.limboapi.api.chunk.data.BlockStorage;
 import net.elytrium.limboapi.protocol.data.BlockStorage19;
 import net.elytrium.limboapi.server.world.SimpleBlock;
+import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class SimpleSection implements BlockSection {
@@ -57,6 +58,35 @@ public class SimpleSection implements BlockSection {
     return this.blocks.get(x, y, z);
   }
 
+  /**
+   * Sets every block between the two corners (inclusive), a fully covered section is replaced in one step.
+   */
+  public void fill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, @NonNull VirtualBlock block) {
+    this.checkIndexes(minX, minY, minZ);
+    this.checkIndexes(maxX, maxY, maxZ);
+    if (minX == 0 && minY == 0 && minZ == 0 && maxX == 15 && maxY == 15 && maxZ == 15 && this.blocks instanceof BlockStorage19) {
+      ((BlockStorage19) this.blocks).fill(block);
+    } else {
+      for (int y = minY; y <= maxY; ++y) {
+        for (int z = minZ; z <= maxZ; ++z) {
+          for (int x = minX; x <= maxX; ++x) {
+            this.blocks.set(x, y, z, block);
+          }
+        }
+      }
+    }
+
+    this.lastUpdate = System.nanoTime();
+  }
+
+  public void markUpdated() {
+    this.lastUpdate = System.nanoTime();
+  }
+
+  public BlockStorage getStorage() {
+    return this.blocks;
+  }
+
   @Override
   public SimpleSection getSnapshot() {
     return new SimpleSection(this.blocks.copy(), this.lastUpdate);